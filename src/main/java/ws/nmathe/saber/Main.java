@@ -1,9 +1,13 @@
 package ws.nmathe.saber;
 
+import ws.nmathe.saber.core.HealthMonitor;
 import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.core.command.CommandHandler;
 import ws.nmathe.saber.core.database.Driver;
+import ws.nmathe.saber.core.database.LeaseManager;
 import ws.nmathe.saber.core.google.CalendarConverter;
+import ws.nmathe.saber.core.metrics.MetricsRegistry;
+import ws.nmathe.saber.core.metrics.MetricsServer;
 import ws.nmathe.saber.core.schedule.EntryManager;
 import ws.nmathe.saber.core.settings.BotSettingsManager;
 import ws.nmathe.saber.core.schedule.ScheduleManager;
@@ -25,6 +29,10 @@ public class Main
     private static CalendarConverter calendarConverter       = new CalendarConverter();
     private static GuildSettingsManager guildSettingsManager = new GuildSettingsManager();
     private static Driver mongoDriver                        = new Driver();
+    private static LeaseManager leaseManager                 = new LeaseManager();
+    private static HealthMonitor healthMonitor               = new HealthMonitor();
+    private static MetricsRegistry metrics                   = new MetricsRegistry();
+    private static MetricsServer metricsServer               = new MetricsServer();
 
     /**
      * initialize the bot
@@ -38,6 +46,7 @@ public class Main
             System.exit(0);
         }
 
+        metricsServer.start();      // serve metrics and health while the bot starts
         mongoDriver.init();         // ready database
         calendarConverter.init();   // connect to calendar service
 
@@ -88,4 +97,19 @@ public class Main
     {
         return mongoDriver;
     }
+
+    public static LeaseManager getLeaseManager()
+    {
+        return leaseManager;
+    }
+
+    public static HealthMonitor getHealthMonitor()
+    {
+        return healthMonitor;
+    }
+
+    public static MetricsRegistry getMetrics()
+    {
+        return metrics;
+    }
 }
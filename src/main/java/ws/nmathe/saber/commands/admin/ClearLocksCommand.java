@@ -7,7 +7,7 @@ import ws.nmathe.saber.commands.CommandInfo;
 import ws.nmathe.saber.utils.MessageUtilities;
 
 /**
- * clears the schedule locks
+ * drops the queued sort, sync, and edit operations of all schedules
  */
 public class ClearLocksCommand implements Command
 {
@@ -33,6 +33,6 @@ public class ClearLocksCommand implements Command
     public void action(String prefix, String[] args, MessageReceivedEvent event)
     {
         Main.getScheduleManager().clearLocks();
-        MessageUtilities.sendPrivateMsg("Cleared locks!", event.getAuthor(), null);
+        MessageUtilities.sendPrivateMsg("Cleared queued schedule operations!", event.getAuthor(), null);
     }
 }
@@ -5,11 +5,16 @@ import net.dv8tion.jda.core.entities.ChannelType;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.commands.Command;
 import ws.nmathe.saber.commands.CommandInfo;
+import ws.nmathe.saber.core.schedule.ActionExecutor;
+import ws.nmathe.saber.core.schedule.ChannelSerializer;
+import ws.nmathe.saber.core.schedule.RefreshCoordinator;
 import ws.nmathe.saber.utils.MessageUtilities;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
+import java.util.Map;
+import java.util.Optional;
 
 /**
  * retrieves bot stats for the admin
@@ -40,12 +45,44 @@ public class StatsCommand implements Command
         JDA.ShardInfo info = event.getJDA().getShardInfo();
         Runtime rt = Runtime.getRuntime();
         RuntimeMXBean rb = ManagementFactory.getRuntimeMXBean();
+        ChannelSerializer serializer = Main.getScheduleManager().getSerializer();
+        RefreshCoordinator refresher = Main.getEntryManager().getRefreshCoordinator();
+        ActionExecutor actions = Main.getEntryManager().getActionExecutor();
+
+        // the guild with the most queued event work
+        String busiest = "none";
+        Optional<Map.Entry<String, Integer>> top = actions.getGuildQueueDepths().entrySet().stream()
+                .max(Map.Entry.comparingByValue());
+        if (top.isPresent())
+        {
+            ActionExecutor.GuildStats stats = actions.getGuildStats(top.get().getKey());
+            busiest = top.get().getKey() + " (" + top.get().getValue() + " queued" +
+                    (stats == null ? "" : ", wait-avg " + stats.getAverageWait() + " ms") + ")";
+        }
 
         String msg = "```python\n" +
                 "\"Database\"\n" +
                 "      Entries: " + Main.getDBDriver().getEventCollection().count() + "\n" +
                 "    Schedules: " + Main.getDBDriver().getScheduleCollection().count() + "\n" +
                 "       Guilds: " + Main.getDBDriver().getGuildCollection().count() + "\n" +
+                "       Health: " + Main.getHealthMonitor().getStatus() + "\n" +
+                "\n\"Schedule Operations\"\n" +
+                "       Queued: " + serializer.getQueueDepth() + "\n" +
+                "     Channels: " + serializer.getActiveChannels() + "\n" +
+                "    Completed: " + serializer.getCompleted() + "\n" +
+                "     Wait-avg: " + serializer.getAverageWait() + " ms\n" +
+                "         -max: " + serializer.getMaxWait() + " ms\n" +
+                "\n\"Event Actions\"\n" +
+                "       Queued: " + actions.getQueueDepth() + "\n" +
+                "     Rejected: " + actions.getRejected() + "\n" +
+                "Timer-waiting: " + refresher.getPendingTimers() + "\n" +
+                "     Timeouts: " + actions.getTimeouts() + "\n" +
+                "      Overdue: " + actions.getOverdue() + "\n" +
+                "Busiest-guild: " + busiest + "\n" +
+                "\n\"Display Refreshes\"\n" +
+                "    Requested: " + refresher.getRequested() + "\n" +
+                "     Rendered: " + refresher.getRendered() + "\n" +
+                "  Edits-saved: " + refresher.getSaved() + "\n" +
                 "\n\"Shard\"\n" +
                 "      ShardId: " + info.getShardId() + "/" + info.getShardTotal() + "\n" +
                 "       Guilds: " + event.getJDA().getGuilds().size() + "\n" +
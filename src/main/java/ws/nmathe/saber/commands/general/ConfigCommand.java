@@ -23,7 +23,6 @@ import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Updates.set;
 
 /**
  * Command which is used to adjust the schedule settings for a channel
@@ -126,11 +125,6 @@ public class ConfigCommand implements Command
                     "Use the ``" + prefix + "init`` command to create a new schedule!";
         }
 
-        if(Main.getScheduleManager().isLocked(cId))
-        {
-            return "This schedule is locked. Please try again after the sort/sync operation finishes.";
-        }
-
         index++;
 
         if (args.length > 1)
@@ -690,8 +684,7 @@ public class ConfigCommand implements Command
                                 primaryZone = altZones.iterator().next();
 
                                 // disable auto-sync'ing timezone
-                                Main.getDBDriver().getScheduleCollection()
-                                        .updateOne(eq("_id", scheduleChan.getId()), set("timezone_sync", false));
+                                Main.getScheduleManager().setTimeZoneSync(scheduleChan.getId(), false);
                             }
                             break;
 
@@ -700,8 +693,7 @@ public class ConfigCommand implements Command
                             altZones.remove(primaryZone);
 
                             // disable auto-sync'ing timezone
-                            Main.getDBDriver().getScheduleCollection()
-                                    .updateOne(eq("_id", scheduleChan.getId()), set("timezone_sync", false));
+                            Main.getScheduleManager().setTimeZoneSync(scheduleChan.getId(), false);
                             break;
                     }
 
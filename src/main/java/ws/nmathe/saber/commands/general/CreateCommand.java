@@ -109,10 +109,6 @@ public class CreateCommand implements Command
             return "Channel " + args[index] + " is not a schedule for your guild. " +
                     "Use the ``" + prefix + "init`` command to create a new schedule!";
         }
-        if (Main.getScheduleManager().isLocked(cId))
-        {
-            return "This schedule is locked. Please try again after the sort/sync operation finishes.";
-        }
         index++; // 1
 
         // check <title>
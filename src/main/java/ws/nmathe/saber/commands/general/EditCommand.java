@@ -119,10 +119,6 @@ public class EditCommand implements Command
         {
             return "I could not find an entry with that ID!";
         }
-        if(Main.getScheduleManager().isLocked(entry.getChannelId()))
-        {
-            return "This schedule is locked. Please try again after the sort/sync operation finishes.";
-        }
 
         TextChannel channel = event.getGuild().getTextChannelById(entry.getChannelId());
         if (!event.getGuild().getMember(event.getJDA().getSelfUser()).hasPermission(channel, Permission.MESSAGE_HISTORY))
@@ -29,9 +29,7 @@ public class SortCommand implements Command
                 "\nEntries can be reordered in either ascending or descending order by adding 'asc' or 'desc' to the command.\n" +
                 "If the order is omitted from the command, the schedule will be sorted in ascending order." +
                 "\n\n" +
-                "The schedule cannot be modified while in the process of sorting.\n" +
-                "If for some reason your schedule is not unlocked after 10 minutes, visit the support server!\n" +
-                "For performance reasons, schedules with more than 15 entries will not be sorted.";
+                "Changes made to the schedule while it is being sorted are applied once the sort finishes.";
         info.addUsageCategory(cat1, cont1);
 
         info.addUsageExample(head + " #schedule");
@@ -65,10 +63,6 @@ public class SortCommand implements Command
             return "Channel " + args[index] + " is not on my list of schedule channels for your guild. " +
                     "Use the ``" + prefix + "init`` command to create a new schedule!";
         }
-        if(Main.getScheduleManager().isLocked(cId))
-        {
-            return "Schedule is locked while sorting or syncing. Please try again after I finish.";
-        }
 
         // check for optional arguments
         if(args.length == 2)
@@ -10,8 +10,6 @@ import ws.nmathe.saber.commands.CommandInfo;
 import ws.nmathe.saber.core.google.GoogleAuth;
 import ws.nmathe.saber.utils.MessageUtilities;
 
-import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Updates.set;
 
 /**
  * Sets a channel to sync to a google calendar address
@@ -76,10 +74,6 @@ public class SyncCommand implements Command
         {
             return "Channel " + args[index] + " is not on my list of schedule channels for your guild.";
         }
-        if(Main.getScheduleManager().isLocked(cId))
-        {
-            return "Schedule is locked while sorting or syncing. Please try again after I finish.";
-        }
 
         // get user Google credentials (if they exist)
         Credential credential = GoogleAuth.getCredential(event.getAuthor().getId());
@@ -159,13 +153,13 @@ public class SyncCommand implements Command
             if(importFlag)
             {
                 // enable auto-sync'ing timezone
-                Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("timezone_sync", true));
+                Main.getScheduleManager().setTimeZoneSync(cId, true);
 
                 // set user who has authorized the sync
                 if(GoogleAuth.authorize(event.getAuthor().getId()) != null)
-                    Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("sync_user", event.getAuthor().getId()));
+                    Main.getScheduleManager().setSyncUser(cId, event.getAuthor().getId());
                 else
-                    Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("sync_user", null));
+                    Main.getScheduleManager().setSyncUser(cId, null);
             }
         }
 
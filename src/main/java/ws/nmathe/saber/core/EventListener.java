@@ -1,5 +1,6 @@
 package ws.nmathe.saber.core;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.events.ReadyEvent;
 import net.dv8tion.jda.core.events.channel.text.TextChannelDeleteEvent;
@@ -19,12 +20,14 @@ import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.core.hooks.ListenerAdapter;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.include;
 
 /**
  * Executes actions for all events received by the JDA shards
@@ -33,6 +36,10 @@ public class EventListener extends ListenerAdapter
 {
     private final RateLimiter reactionLimiter = new RateLimiter(50);
 
+    // used for work which should not be done on the JDA event threads
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("EventListener-%d").build());
+
     @Override
     public void onReady(ReadyEvent event)
     {
@@ -40,6 +47,25 @@ public class EventListener extends ListenerAdapter
         {
             Logging.info(this.getClass(), "Shard " + event.getJDA().getShardInfo().getShardId() + " ready!");
         }
+
+        // pre-load the guild settings of the shard's guilds so that message processing does not need the database,
+        // and load the shard's event messages so reactions and deletes on other messages can be ignored
+        JDA jda = event.getJDA();
+        executor.execute(() ->
+        {
+            try
+            {
+                Main.getGuildSettingsManager().loadGuildSettings(jda.getGuilds());
+
+                List<String> guildIds = new ArrayList<>();
+                jda.getGuilds().forEach(guild -> guildIds.add(guild.getId()));
+                Main.getEntryManager().loadMessageIndex(shardId(jda), guildIds);
+            }
+            catch(Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+        });
     }
 
     @Override
@@ -221,6 +247,9 @@ public class EventListener extends ListenerAdapter
         Main.getDBDriver().getGuildCollection().deleteOne(eq("_id", event.getGuild().getId()));
         */
 
+        // the guild's settings no longer need to be held in memory
+        Main.getGuildSettingsManager().invalidateCache(event.getGuild().getId());
+
         JDA.ShardInfo info = event.getJDA().getShardInfo();
         HttpUtilities.updateStats(info==null ? null : info.getShardId());
     }
@@ -228,8 +257,16 @@ public class EventListener extends ListenerAdapter
     @Override
     public void onMessageDelete( MessageDeleteEvent event )
     {
+        // ignore messages which are known not to be event messages
+        if (!Main.getEntryManager().isEventMessage(shardId(event.getJDA()), event.getMessageId())) return;
+
         // delete the event if the delete message was an event message
-        Main.getDBDriver().getEventCollection().findOneAndDelete(eq("messageId", event.getMessageId()));
+        Document doc = Main.getDBDriver().getEventCollection()
+                .find(eq("messageId", event.getMessageId())).projection(include("_id")).first();
+        if (doc != null)
+        {
+            Main.getEntryManager().removeEntry(doc.getInteger("_id"));
+        }
     }
 
     @Override
@@ -242,36 +279,28 @@ public class EventListener extends ListenerAdapter
         {
             Main.getDBDriver().getEventCollection().deleteMany(eq("channelId", cId));
             Main.getDBDriver().getScheduleCollection().deleteOne(eq("_id", cId));
+            Main.getScheduleManager().invalidateCache(cId);
         }
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void onGuildMemberLeave(GuildMemberLeaveEvent event)
     {
+        String guildId = event.getGuild().getId();
         String memberId = event.getUser().getId();
 
         // remove user from any events they have rsvp'ed to
-        Collection<ScheduleEntry> entries = Main.getEntryManager().getEntriesFromGuild(event.getGuild().getId());
-        for(ScheduleEntry se : entries)
+        executor.execute(() ->
         {
-            boolean updateFlag = false;
-            // check each rsvp group on the entry
-            for(String key : se.getRsvpMembers().keySet())
+            try
             {
-                Set<String> members = se.getRsvpMembersOfType(key);
-                if (members.contains(event.getUser().getId()))
-                {
-                    members.remove(event.getUser().getId());
-                    se.setRsvpMembers(key, members);
-                    updateFlag = true;
-                }
+                Main.getEntryManager().removeRSVPs(guildId, memberId);
             }
-            if(updateFlag)
+            catch (Exception e)
             {
-                Main.getEntryManager().updateEntry(se, false);
+                Logging.exception(this.getClass(), e);
             }
-        }
+        });
     }
 
     @Override
@@ -289,6 +318,9 @@ public class EventListener extends ListenerAdapter
 
         if(reactionLimiter.check(event.getUser().getId())) return;
 
+        // don't process reactions on messages which are known not to be event messages
+        if(!Main.getEntryManager().isEventMessage(shardId(event.getJDA()), event.getMessageId())) return;
+
         // if the schedule is rsvp enabled and the user added an rsvp emoji to the event
         // add the user to the appropriate rsvp list and remove the emoji
         try
@@ -320,4 +352,14 @@ public class EventListener extends ListenerAdapter
             Logging.exception(this.getClass(), e);
         }
     }
+
+    /**
+     * @param jda the shard
+     * @return the shard's ID (0 when the bot is not sharded)
+     */
+    private static int shardId(JDA jda)
+    {
+        JDA.ShardInfo info = jda.getShardInfo();
+        return info == null ? 0 : info.getShardId();
+    }
 }
@@ -0,0 +1,97 @@
+package ws.nmathe.saber.core;
+
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the health reported by the components of the bot (ie. event processing).
+ * The health of the bot is that of its least healthy component; components report a degraded status
+ * instead of stopping the bot so that a slow or failing dependency reduces throughput rather than
+ * restarting every shard.
+ */
+public class HealthMonitor
+{
+    public enum Status { HEALTHY, DEGRADED, UNHEALTHY }
+
+    private final Map<String, Check> checks = new ConcurrentHashMap<>();
+
+    /**
+     * the last status reported by a component
+     */
+    public static class Check
+    {
+        private final Status status;
+        private final String detail;
+        private final Date time;
+
+        Check(Status status, String detail)
+        {
+            this.status = status;
+            this.detail = detail;
+            this.time = new Date();
+        }
+
+        public Status getStatus()
+        {
+            return this.status;
+        }
+
+        public String getDetail()
+        {
+            return this.detail;
+        }
+
+        public Date getTime()
+        {
+            return this.time;
+        }
+    }
+
+    /**
+     * reports the status of a component, changes in status are logged
+     * @param component name of the component
+     * @param status the component's status
+     * @param detail description of the status
+     */
+    public void report(String component, Status status, String detail)
+    {
+        Check previous = this.checks.put(component, new Check(status, detail));
+        if (previous == null || previous.getStatus() != status)
+        {
+            String msg = "Health of '" + component + "' is " + status + (detail == null ? "" : ": " + detail);
+            if (status == Status.HEALTHY)
+            {
+                Logging.info(this.getClass(), msg);
+            }
+            else
+            {
+                Logging.warn(this.getClass(), msg);
+            }
+        }
+    }
+
+    /**
+     * @return the status of the least healthy component
+     */
+    public Status getStatus()
+    {
+        Status status = Status.HEALTHY;
+        for (Check check : this.checks.values())
+        {
+            if (check.getStatus().compareTo(status) > 0) status = check.getStatus();
+        }
+        return status;
+    }
+
+    /**
+     * @return the last status reported by each component
+     */
+    public Map<String, Check> getChecks()
+    {
+        return new LinkedHashMap<>(this.checks);
+    }
+}
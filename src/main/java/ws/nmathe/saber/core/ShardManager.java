@@ -9,12 +9,18 @@ import net.dv8tion.jda.core.entities.Game;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.utils.MiscUtil;
 import net.dv8tion.jda.core.utils.SessionControllerAdapter;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.metrics.MetricsRegistry;
 import ws.nmathe.saber.utils.Logging;
 import javax.security.auth.login.LoginException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.mongodb.client.model.Filters.in;
 
 /**
  * The ShardManager manages the JDA objects used to interface with the Discord api
@@ -44,6 +50,8 @@ public class ShardManager
         // initialize the list of 'Now Playing' games
         this.loadGamesList();
         this.shardTotal = shardTotal;
+        shards = new ArrayList<>(shards);   // the configured list of shards is used to filter database queries
+        this.registerMetrics(shards);
 
         try // connect the bot to the discord API and initialize schedule components
         {
@@ -169,6 +177,32 @@ public class ShardManager
         }
     }
 
+    /**
+     * registers the connection status, ping, and guild count of each shard of this instance as metrics
+     * @param shards the IDs of the shards
+     */
+    private void registerMetrics(List<Integer> shards)
+    {
+        MetricsRegistry metrics = Main.getMetrics();
+        for (Integer shardId : this.shardTotal > 0 ? shards : Collections.singletonList(0))
+        {
+            // shards are replaced when restarted, so the shard is looked up each time the metrics are read
+            Supplier<JDA> shard = () -> this.shardTotal > 0 ?
+                    (this.jdaShards == null ? null : this.jdaShards.get(shardId)) : this.jda;
+            String id = String.valueOf(shardId);
+
+            metrics.gauge("saber_shard_connected", "Whether the shard is connected to Discord",
+                    () -> shard.get() != null && shard.get().getStatus() == JDA.Status.CONNECTED ? 1 : 0,
+                    "shard", id);
+            metrics.gauge("saber_shard_ping_milliseconds", "Heartbeat ping of the shard",
+                    () -> shard.get() == null ? null : shard.get().getPing(),
+                    "shard", id);
+            metrics.gauge("saber_shard_guilds", "Guilds served by the shard",
+                    () -> shard.get() == null ? null : shard.get().getGuilds().size(),
+                    "shard", id);
+        }
+    }
+
     /**
      * Identifies if the bot is sharding enabled
      * @return bool
@@ -222,9 +256,32 @@ public class ShardManager
      */
     public JDA getShard(String guildId)
     {
+        return jdaShards.get(getShardId(guildId));
+    }
+
+    /**
+     * Identifies which shard is responsible for a guild, stored as 'shardId' on event and schedule documents
+     * @param guildId ID of guild
+     * @return the shard ID, 0 if sharding is disabled
+     */
+    public static int getShardId(String guildId)
+    {
+        int shardTotal = Main.getBotSettingsManager().getShardTotal();
+        if (shardTotal <= 0) return 0;
+
         long id = MiscUtil.parseSnowflake(guildId);
-        long shardId = (id >> 22) % Main.getBotSettingsManager().getShardTotal();
-        return jdaShards.get((int) shardId);
+        return (int) ((id >> 22) % shardTotal);
+    }
+
+    /**
+     * Creates a database filter which matches the event and schedule documents of the shards
+     * which are run by this instance of the bot
+     * @return the filter, matches all documents if sharding is disabled
+     */
+    public static Bson getShardFilter()
+    {
+        if (Main.getBotSettingsManager().getShardTotal() <= 0) return new Document();
+        return in("shardId", Main.getBotSettingsManager().getShards());
     }
 
 
@@ -7,6 +7,7 @@ import ws.nmathe.saber.Main;
 import ws.nmathe.saber.commands.Command;
 import ws.nmathe.saber.commands.admin.*;
 import ws.nmathe.saber.core.RateLimiter;
+import ws.nmathe.saber.core.metrics.Histogram;
 import ws.nmathe.saber.utils.MessageUtilities;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 import ws.nmathe.saber.commands.general.*;
@@ -160,7 +161,8 @@ public class CommandHandler
                     {
                         try
                         {
-                            commands.get(cc.invoke).action(cc.prefix, cc.args, cc.event);
+                            commandTimer(cc.invoke).time(() ->
+                                    commands.get(cc.invoke).action(cc.prefix, cc.args, cc.event));
 
                             String info = "Executed command [" + cc.event.getMessage().getContentRaw() +
                                     "] by " + cc.event.getAuthor().getName() + " [" + cc.event.getMessage().getAuthor().getId()+ "]";
@@ -218,7 +220,8 @@ public class CommandHandler
                     {
                         try
                         {
-                            adminCommands.get(cc.invoke).action(cc.prefix + cc.invoke, cc.args, cc.event);
+                            commandTimer(cc.invoke).time(() ->
+                                    adminCommands.get(cc.invoke).action(cc.prefix + cc.invoke, cc.args, cc.event));
                         }
                         catch(Exception e)
                         {
@@ -239,6 +242,16 @@ public class CommandHandler
         }
     }
 
+    /**
+     * @param invoke name of a command (only known commands are timed, so the number of metrics is bounded)
+     * @return the histogram of the time taken to execute the command
+     */
+    private Histogram commandTimer(String invoke)
+    {
+        return Main.getMetrics().histogram("saber_command_milliseconds",
+                "Time taken to execute commands", "command", invoke);
+    }
+
     public Collection<Command> getCommands()
     {
         return commands.values();
@@ -1,14 +1,27 @@
 package ws.nmathe.saber.core.database;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoClientURI;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
 
+import java.util.*;
 import java.util.concurrent.*;
 
+import static com.mongodb.client.model.Indexes.ascending;
+import static com.mongodb.client.model.Indexes.compoundIndex;
+
 public class Driver
 {
     private MongoDatabase db;
@@ -17,14 +30,131 @@ public class Driver
     {
         // for a connection to the Mongo database
         // connection properties should be configured via the URI used in the bot toml file
-        MongoClient mongoClient = new MongoClient(new MongoClientURI(Main.getBotSettingsManager().getMongoURI()));
+        MongoClientOptions.Builder options = MongoClientOptions.builder().addCommandListener(new CommandTimer());
+        MongoClient mongoClient = new MongoClient(new MongoClientURI(Main.getBotSettingsManager().getMongoURI(), options));
         db = mongoClient.getDatabase("saberDB");
 
+        // make sure the collections are indexed for the queries the bot uses
+        this.ensureIndexes();
+
         // schedule a thread to prune disconnected guild, schedules, and events from the database
         ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
         executor.scheduleAtFixedRate(new Pruner(), 12, 12, TimeUnit.HOURS);
     }
 
+    /**
+     * Creates the indexes used by the queries of the EntryProcessor, ScheduleSyncer, Pruner, and EventListener
+     * (creating an index which already exists is a no-op), then verifies each index is present.
+     * Any index which is missing is logged along with the queries which will fall back to collection scans.
+     */
+    private void ensureIndexes()
+    {
+        // index keys -> queries which use the index
+        Map<Bson, String> eventIndexes = new LinkedHashMap<>();
+        eventIndexes.put(compoundIndex(ascending("channelId"), ascending("googleId")),
+                "events by schedule (ScheduleManager, Pruner) and calendar sync lookups (CalendarConverter)");
+        eventIndexes.put(ascending("guildId"),
+                "events by guild (EntryManager, EventListener, Pruner)");
+        eventIndexes.put(ascending("messageId"),
+                "event lookups by message on reactions and deletes (EventListener)");
+        eventIndexes.put(ascending("next_fire"),
+                "events with due actions (EntryProcessor)");
+        eventIndexes.put(compoundIndex(ascending("shardId"), ascending("next_fire")),
+                "events with due actions of the instance's shards (EntryProcessor)");
+        eventIndexes.put(compoundIndex(ascending("hasStarted"), ascending("start")),
+                "start timer updates (EntryProcessor)");
+        eventIndexes.put(compoundIndex(ascending("hasStarted"), ascending("end")),
+                "end timer updates (EntryProcessor)");
+        eventIndexes.put(ascending("expire"),
+                "expiring events (EntryProcessor)");
+        this.ensureIndexes(this.getEventCollection(), eventIndexes);
+
+        Map<Bson, String> scheduleIndexes = new LinkedHashMap<>();
+        scheduleIndexes.put(ascending("guildId"),
+                "schedules by guild (ScheduleManager, Pruner)");
+        scheduleIndexes.put(compoundIndex(ascending("sync_address"), ascending("sync_time")),
+                "schedules due to be synced (ScheduleSyncer)");
+        scheduleIndexes.put(compoundIndex(ascending("shardId"), ascending("sync_time")),
+                "schedules of the instance's shards due to be synced (ScheduleSyncer)");
+        this.ensureIndexes(this.getScheduleCollection(), scheduleIndexes);
+
+        Logging.info(this.getClass(), "Verified database indexes.");
+    }
+
+    /**
+     * helper to ensureIndexes()
+     * @param collection the collection to index
+     * @param declared mapping of index keys to a description of the queries using the index
+     */
+    private void ensureIndexes(MongoCollection<Document> collection, Map<Bson, String> declared)
+    {
+        String name = collection.getNamespace().getCollectionName();
+
+        // create any missing indexes, built in the background so that the build does not lock the database
+        for (Bson keys : declared.keySet())
+        {
+            try
+            {
+                collection.createIndex(keys, new IndexOptions().background(true));
+            }
+            catch (Exception e)
+            {
+                Logging.warn(this.getClass(), "Unable to create index " + keys + " on '" + name + "': " + e.getMessage());
+            }
+        }
+
+        // verify the indexes exist, indexes are identified by their ordered list of key fields
+        Set<List<String>> existing = new HashSet<>();
+        try
+        {
+            for (Document index : collection.listIndexes())
+            {
+                existing.add(new ArrayList<>(((Document) index.get("key")).keySet()));
+            }
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+        for (Map.Entry<Bson, String> entry : declared.entrySet())
+        {
+            BsonDocument keys = entry.getKey().toBsonDocument(Document.class, collection.getCodecRegistry());
+            if (!existing.contains(new ArrayList<>(keys.keySet())))
+            {
+                Logging.warn(this.getClass(), "Missing index " + keys.toJson() + " on '" + name + "', " +
+                        "the following queries will use collection scans: " + entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * records the time taken by each database command as metrics, labelled by the command's name
+     */
+    private static class CommandTimer implements CommandListener
+    {
+        @Override
+        public void commandStarted(CommandStartedEvent event)
+        {}
+
+        @Override
+        public void commandSucceeded(CommandSucceededEvent event)
+        {
+            Main.getMetrics().histogram("saber_mongo_command_milliseconds",
+                    "Time taken by database commands", "command", event.getCommandName())
+                    .record(event.getElapsedTime(TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public void commandFailed(CommandFailedEvent event)
+        {
+            Main.getMetrics().histogram("saber_mongo_command_milliseconds",
+                    "Time taken by database commands", "command", event.getCommandName())
+                    .record(event.getElapsedTime(TimeUnit.MILLISECONDS));
+            Main.getMetrics().counter("saber_mongo_command_failures_total",
+                    "Database commands which failed", "command", event.getCommandName()).increment();
+        }
+    }
+
     public MongoCollection<Document> getScheduleCollection()
     {
         return db.getCollection("schedules");
@@ -39,4 +169,9 @@ public class Driver
     {
         return db.getCollection("guilds");
     }
+
+    public MongoCollection<Document> getSystemCollection()
+    {
+        return db.getCollection("system");
+    }
 }
@@ -0,0 +1,211 @@
+package ws.nmathe.saber.core.database;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import ws.nmathe.saber.utils.Logging;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Updates.*;
+
+/**
+ * Grants one instance of the bot exclusive, time limited ownership (a lease) of an event or schedule document
+ * so that multiple instances running against the same database do not process the same document.
+ * The owner and expiration of a lease are stored on the document as 'lease_owner' and 'lease_expire'.
+ * Leases are renewed while held and released when closed, a lease which is not released (the instance died)
+ * may be claimed by another instance once expired.
+ * A lease which cannot be renewed is lost: the thread holding it is interrupted and writes made on the
+ * thread's behalf should be refused (see checkHeld()) since another instance may now hold the lease.
+ */
+public class LeaseManager
+{
+    public static final long LEASE_DURATION = 120;       // seconds a lease is valid without renewal
+
+    private final String nodeId;                         // identifies this instance of the bot
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("LeaseRenewer-%d").build());
+    private final ThreadLocal<Lease> current = new ThreadLocal<>();     // the lease held by a thread
+
+    public LeaseManager()
+    {
+        String host;
+        try
+        {
+            host = InetAddress.getLocalHost().getHostName();
+        }
+        catch (Exception e)
+        {
+            host = "unknown";
+        }
+        this.nodeId = host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * attempts to claim the lease of a document
+     * @param collection the collection holding the document
+     * @param id the document's ID
+     * @param condition additional conditions the document must match (ie. the work is still due)
+     * @return the lease, null if the document does not match or is leased by another instance
+     */
+    public Lease claim(MongoCollection<Document> collection, Object id, Bson condition)
+    {
+        Bson filter = and(
+                eq("_id", id),
+                condition,
+                or(eq("lease_owner", null), lt("lease_expire", new Date())));
+        Document document = collection.findOneAndUpdate(filter,
+                combine(set("lease_owner", this.nodeId), set("lease_expire", expiration())),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        if (document == null) return null;
+
+        Lease lease = new Lease(collection, id, document);
+        this.current.set(lease);
+        return lease;
+    }
+
+    /**
+     * verifies the lease held by the current thread (if any) has not been lost, should be called before
+     * work done under a lease has an effect outside of the instance (ie. a database write or a message)
+     * @throws IllegalStateException if the lease has been lost
+     */
+    public void checkHeld()
+    {
+        Lease lease = this.current.get();
+        if (lease != null && lease.isLost())
+        {
+            throw new IllegalStateException("The lease on document " + lease.id + " was lost.");
+        }
+    }
+
+    /**
+     * @return the ID this instance of the bot uses as lease owner
+     */
+    public String getNodeId()
+    {
+        return this.nodeId;
+    }
+
+    private static Date expiration()
+    {
+        return Date.from(Instant.now().plusSeconds(LEASE_DURATION));
+    }
+
+    /**
+     * a claimed lease, renewed periodically until closed
+     */
+    public class Lease implements AutoCloseable
+    {
+        private final MongoCollection<Document> collection;
+        private final Object id;
+        private final Document document;
+        private final ScheduledFuture<?> renewal;
+        private final Thread holder = Thread.currentThread();
+
+        private volatile long expires = System.currentTimeMillis() + LEASE_DURATION*1000;
+        private volatile boolean lost = false;
+        private boolean closed = false;     // guarded by this
+
+        private Lease(MongoCollection<Document> collection, Object id, Document document)
+        {
+            this.collection = collection;
+            this.id = id;
+            this.document = document;
+            this.renewal = renewer.scheduleAtFixedRate(this::renew,
+                    LEASE_DURATION/3, LEASE_DURATION/3, TimeUnit.SECONDS);
+        }
+
+        /**
+         * @return the document as it was when the lease was claimed
+         */
+        public Document getDocument()
+        {
+            return this.document;
+        }
+
+        /**
+         * @return true if the lease could not be renewed, another instance may hold the lease
+         */
+        public boolean isLost()
+        {
+            return this.lost || System.currentTimeMillis() > this.expires;
+        }
+
+        /**
+         * extends the expiration of the lease
+         */
+        private void renew()
+        {
+            try
+            {
+                Date expiration = expiration();
+                UpdateResult res = this.collection.updateOne(
+                        and(eq("_id", this.id), eq("lease_owner", nodeId)),
+                        set("lease_expire", expiration));
+                if (res.getMatchedCount() == 0)
+                {
+                    this.lose();
+                }
+                else
+                {
+                    this.expires = expiration.getTime();
+                }
+            }
+            catch (Exception e)
+            {   // the lease is held until it expires, renewal is tried again before then
+                Logging.exception(LeaseManager.class, e);
+                if (this.isLost()) this.lose();
+            }
+        }
+
+        /**
+         * marks the lease as lost and interrupts the thread holding it so that the work done under the lease stops
+         */
+        private synchronized void lose()
+        {
+            if (this.closed) return;
+
+            this.lost = true;
+            this.renewal.cancel(false);
+            Logging.warn(LeaseManager.class, "Lost the lease on document " + this.id + " in '" +
+                    this.collection.getNamespace().getCollectionName() + "', aborting " + this.holder.getName());
+            this.holder.interrupt();
+        }
+
+        /**
+         * releases the lease
+         */
+        @Override
+        public void close()
+        {
+            synchronized (this)
+            {
+                this.closed = true;
+            }
+            if (current.get() == this) current.remove();
+            this.renewal.cancel(false);
+            try
+            {
+                this.collection.updateOne(
+                        and(eq("_id", this.id), eq("lease_owner", nodeId)),
+                        combine(unset("lease_owner"), unset("lease_expire")));
+            }
+            catch (Exception e)
+            {
+                Logging.exception(LeaseManager.class, e);
+            }
+        }
+    }
+}
@@ -2,20 +2,32 @@ package ws.nmathe.saber.core.database;
 
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.Permission;
-import net.dv8tion.jda.core.entities.Guild;
-import net.dv8tion.jda.core.entities.MessageChannel;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.TextChannel;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.utils.Logging;
 
-import java.util.Collection;
+import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
 import static com.mongodb.client.model.Projections.fields;
 import static com.mongodb.client.model.Projections.include;
 
@@ -24,128 +36,275 @@ import static com.mongodb.client.model.Projections.include;
  */
 public class Pruner implements Runnable
 {
+    // system documents holding the progress of each pass, suffixed by the shards of the instance (see checkpointId)
+    private static final String GUILD_CHECKPOINT = "pruner_guilds";
+    private static final String SCHEDULE_CHECKPOINT = "pruner_schedules";
+    private static final String CHECKPOINT = "pruner_events";
+
+    private static final int BATCH_SIZE = 500;      // documents per page of the guild and schedule passes
+    private static final long CHANNEL_DELAY = 500;  // milliseconds to wait between channels of the event pass
+
     @Override
     public void run()
     {
         Logging.info(this.getClass(), "Running database pruner. . .");
 
         // purge guild setting entries for any guild not connected to the bot
-        Bson query = new Document();
-        Main.getDBDriver().getGuildCollection().find(query)
-                .projection(fields(include("_id")))
-                .forEach((Consumer<? super Document>) document ->
+        this.prunePass(GUILD_CHECKPOINT, Main.getDBDriver().getGuildCollection(), new Document(), fields(include("_id")),
+                document ->
                 {
-                    try
-                    {
-                        // identify which shard is responsible for the schedule
-                        String guildId = document.getString("_id");
-                        JDA jda = Main.getShardManager().getShard(guildId);
-
-                        // if the shard is not connected, do not prune
-                        if(jda == null) return;
-                        if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
-
-                        Guild guild = jda.getGuildById(guildId);
-                        if(guild == null)
-                        {
-                            Main.getDBDriver().getGuildCollection().deleteOne(eq("_id", guildId));
-                            Main.getDBDriver().getEventCollection().deleteMany(eq("guildId", guildId));
-                            Main.getDBDriver().getScheduleCollection().deleteMany(eq("guildId", guildId));
-                            Logging.info(this.getClass(), "Pruned guild with ID: " + guildId);
-                        }
-                    }
-                    catch(Exception e)
+                    // identify which shard is responsible for the schedule
+                    String guildId = document.getString("_id");
+                    JDA jda = Main.getShardManager().getShard(guildId);
+
+                    // if the shard is not connected, do not prune
+                    if(jda == null) return false;
+                    if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return false;
+
+                    return jda.getGuildById(guildId) == null;
+                },
+                guildIds ->
+                {
+                    for (String guildId : guildIds)
                     {
-                        Logging.exception(this.getClass(), e);
+                        Main.getScheduleManager().getSchedulesForGuild(guildId)
+                                .forEach(Main.getScheduleManager()::invalidateCache);
                     }
+                    this.deleteAll(Main.getDBDriver().getEventCollection(), "guildId", guildIds);
+                    this.deleteAll(Main.getDBDriver().getScheduleCollection(), "guildId", guildIds);
+                    this.deleteAll(Main.getDBDriver().getGuildCollection(), "_id", guildIds);
+                    guildIds.forEach(Main.getGuildSettingsManager()::invalidateCache);
+                    Logging.info(this.getClass(), "Pruned guilds with IDs: " + guildIds);
                 });
 
         // purge schedules that the bot cannot connect to
-        query = new Document();
-        Main.getDBDriver().getScheduleCollection().find(query)
-                .projection(fields(include("_id", "guildId")))
-                .forEach((Consumer<? super Document>) document ->
+        this.prunePass(SCHEDULE_CHECKPOINT, Main.getDBDriver().getScheduleCollection(),
+                ShardManager.getShardFilter(), fields(include("_id", "guildId")),
+                document ->
                 {
-                    try
-                    {
-                        // identify which shard is responsible for the schedule
-                        String guildId = document.getString("guildId");
-                        JDA jda = Main.getShardManager().getShard(guildId);
-
-                        // if the shard is not connected, do not prune
-                        if(jda == null) return;
-                        if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
-
-                        String chanId = document.getString("_id");
-                        MessageChannel channel = jda.getTextChannelById(chanId);
-                        if(channel == null)
-                        {
-                            Main.getDBDriver().getEventCollection().deleteMany(eq("channeldId", chanId));
-                            Main.getDBDriver().getScheduleCollection().deleteMany(eq("_id", chanId));
-                            Logging.info(this.getClass(), "Pruned schedule with channel ID: " + chanId);
-                        }
-                    }
-                    catch(Exception e)
-                    {
-                        Logging.exception(this.getClass(), e);
-                    }
+                    // identify which shard is responsible for the schedule
+                    String guildId = document.getString("guildId");
+                    JDA jda = Main.getShardManager().getShard(guildId);
+
+                    // if the shard is not connected, do not prune
+                    if(jda == null) return false;
+                    if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return false;
+
+                    return jda.getTextChannelById(document.getString("_id")) == null;
+                },
+                channelIds ->
+                {
+                    this.deleteAll(Main.getDBDriver().getEventCollection(), "channelId", channelIds);
+                    this.deleteAll(Main.getDBDriver().getScheduleCollection(), "_id", channelIds);
+                    channelIds.forEach(Main.getScheduleManager()::invalidateCache);
+                    Logging.info(this.getClass(), "Pruned schedules with channel IDs: " + channelIds);
                 });
 
+        // purge events for which the message no longer exists
+        this.pruneEvents();
+    }
+
+    /**
+     * pages through a collection in _id ordered batches, collecting the IDs of orphaned documents.
+     * The orphans of each batch are flushed before the batch's last ID is checkpointed, so that an
+     * interrupted run resumes with the next batch
+     * @param checkpoint ID of the system document holding the pass' progress
+     * @param collection the collection to page through
+     * @param filter limits the pass to the documents of this instance
+     * @param projection the fields needed to identify orphaned documents
+     * @param isOrphan true if the document is orphaned
+     * @param flush deletes the orphaned documents (and anything depending on them) given their IDs
+     */
+    private void prunePass(String checkpoint, MongoCollection<Document> collection, Bson filter, Bson projection,
+                           Predicate<Document> isOrphan, Consumer<List<String>> flush)
+    {
+        MongoCollection<Document> system = Main.getDBDriver().getSystemCollection();
+        checkpoint = checkpointId(checkpoint);
+        Document progress = system.find(eq("_id", checkpoint)).first();
+        String lastId = progress == null ? null : progress.getString("lastId");
+
+        while (true)
+        {
+            List<Document> batch = collection.find(lastId == null ? filter : and(filter, gt("_id", lastId)))
+                    .projection(projection)
+                    .sort(ascending("_id"))
+                    .limit(BATCH_SIZE)
+                    .into(new ArrayList<>());
+            if (batch.isEmpty()) break;
 
-        // purge events for which the bot cannot access the message
-        query = new Document();
-        Main.getDBDriver().getEventCollection().find(query)
-                .projection(fields(include("_id", "messageId", "channelId", "guildId")))
-                .forEach((Consumer<? super Document>) document ->
+            List<String> orphans = new ArrayList<>();
+            for (Document document : batch)
+            {
+                try
                 {
-                    try
-                    {
-                        // identify which shard is responsible for the schedule
-                        String guildId = document.getString("guildId");
-                        JDA jda = Main.getShardManager().getShard(guildId);
-
-                        // if the shard is not connected, do not prune
-                        if(jda == null) return;
-                        if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
-
-                        // validate message id
-                        Integer eventId = document.getInteger("_id");
-                        String messageId = document.getString("messageId");
-                        if(messageId == null)
-                        {
-                            Main.getDBDriver().getEventCollection().deleteOne(eq("_id", eventId));
-                            Logging.info(this.getClass(), "Pruned event with ID: " + eventId);
-                            return;
-                        }
-
-                        // validate channel id
-                        String channelId = document.getString("channelId");
-                        TextChannel channel = jda.getTextChannelById(channelId);
-                        if(channel==null)
-                        {   // only do event pruning in this loop
-                            return;
-                        }
-
-                        // attempt to retrieve the message so as to verify it's existence
-                        channel.getMessageById(messageId).queue(
-                                message ->
-                                {
-                                    if(message == null)
-                                    {
-                                        Main.getDBDriver().getEventCollection().deleteOne(eq("_id", eventId));
-                                        Logging.info(this.getClass(), "Pruned event with ID: " + eventId + " on channel with ID: " + channelId);
-                                    }
-                                },
-                                throwable ->
-                                {
-                                    Main.getDBDriver().getEventCollection().deleteOne(eq("_id", eventId));
-                                    Logging.info(this.getClass(), "Pruned event with ID: " + eventId + " on channel with ID: " + channelId);
-                                });
-                    }
-                    catch(Exception e)
-                    {
-                        Logging.exception(this.getClass(), e);
-                    }
-            });
+                    if (isOrphan.test(document)) orphans.add(document.getString("_id"));
+                }
+                catch(Exception e)
+                {
+                    Logging.exception(this.getClass(), e);
+                }
+            }
+            if (!orphans.isEmpty())
+            {
+                try
+                {
+                    flush.accept(orphans);
+                }
+                catch(Exception e)
+                {   // do not move past the batch, it will be tried again next run
+                    Logging.exception(this.getClass(), e);
+                    return;
+                }
+            }
+
+            lastId = batch.get(batch.size()-1).getString("_id");
+            system.updateOne(eq("_id", checkpoint),
+                    combine(set("lastId", lastId), set("updated", new Date())),
+                    new UpdateOptions().upsert(true));
+        }
+
+        // the pass has completed, the next run starts from the beginning of the collection
+        system.deleteOne(eq("_id", checkpoint));
+    }
+
+    /**
+     * helper to run(), deletes all documents whose field matches one of the IDs with a single unordered bulk write
+     * @param collection the collection to delete from
+     * @param field the field holding the ID
+     * @param ids the IDs of the documents to delete
+     */
+    private void deleteAll(MongoCollection<Document> collection, String field, List<String> ids)
+    {
+        List<WriteModel<Document>> deletes = new ArrayList<>();
+        for (String id : ids)
+        {
+            deletes.add(field.equals("_id") ? new DeleteOneModel<>(eq(field, id)) : new DeleteManyModel<>(eq(field, id)));
+        }
+        collection.bulkWrite(deletes, new BulkWriteOptions().ordered(false));
+    }
+
+    /**
+     * purges events whose message no longer exists, one schedule channel at a time.
+     * The channel's history is paged through once and compared against the event messages stored for the
+     * channel, paging stops once the history is older than the oldest event message.
+     * Events are only deleted if the history was completely read. Progress is checkpointed after each
+     * channel so that an interrupted run resumes where it left off
+     */
+    private void pruneEvents()
+    {
+        MongoCollection<Document> system = Main.getDBDriver().getSystemCollection();
+        String checkpointId = checkpointId(CHECKPOINT);
+        Document checkpoint = system.find(eq("_id", checkpointId)).first();
+        String resumeAfter = checkpoint == null ? null : checkpoint.getString("channelId");
+        if (resumeAfter != null)
+        {
+            Logging.info(this.getClass(), "Resuming event pruning after channel with ID: " + resumeAfter);
+        }
+
+        // only the schedules of the shards run by this instance
+        Bson query = resumeAfter == null ? ShardManager.getShardFilter() :
+                and(ShardManager.getShardFilter(), gt("_id", resumeAfter));
+        List<String> channelIds = Main.getDBDriver().getScheduleCollection().find(query)
+                .projection(fields(include("_id")))
+                .sort(ascending("_id"))
+                .map(document -> document.getString("_id"))
+                .into(new ArrayList<>());
+
+        for (String channelId : channelIds)
+        {
+            try
+            {
+                this.pruneChannel(channelId);
+                Thread.sleep(CHANNEL_DELAY);
+            }
+            catch (InterruptedException e)
+            {
+                Logging.warn(this.getClass(), "Event pruning interrupted.");
+                return;
+            }
+            catch (Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+            system.updateOne(eq("_id", checkpointId),
+                    combine(set("channelId", channelId), set("updated", new Date())),
+                    new UpdateOptions().upsert(true));
+        }
+
+        // the run has completed, the next run starts from the first channel
+        system.deleteOne(eq("_id", checkpointId));
+    }
+
+    /**
+     * instances of the bot which share the database prune different shards, so each keeps its own progress
+     * @param pass name of the pass' checkpoint
+     * @return ID of the system document holding the progress of the pass for the shards of this instance
+     */
+    private static String checkpointId(String pass)
+    {
+        if (Main.getBotSettingsManager().getShardTotal() <= 0) return pass;
+
+        List<Integer> shards = new ArrayList<>(Main.getBotSettingsManager().getShards());
+        Collections.sort(shards);
+        return pass + ":" + shards.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /**
+     * helper to pruneEvents(), purges the events of a single schedule channel
+     * @param channelId ID of the schedule channel
+     */
+    private void pruneChannel(String channelId)
+    {
+        // the events of the channel, event ID keyed by message ID
+        Map<Long, Integer> stored = new HashMap<>();
+        List<Integer> orphans = new ArrayList<>();
+        String guildId = null;
+        for (Document document : Main.getDBDriver().getEventCollection()
+                .find(eq("channelId", channelId))
+                .projection(fields(include("_id", "messageId", "guildId"))))
+        {
+            guildId = document.getString("guildId");
+            String messageId = document.getString("messageId");
+            if (messageId == null)
+            {
+                orphans.add(document.getInteger("_id"));
+            }
+            else
+            {
+                stored.put(Long.parseLong(messageId), document.getInteger("_id"));
+            }
+        }
+        if (guildId == null) return;
+
+        // identify which shard is responsible for the schedule
+        JDA jda = Main.getShardManager().getShard(guildId);
+
+        // if the shard is not connected, do not prune
+        if (jda == null) return;
+        if (JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
+
+        // the channel's history cannot be verified if the channel is gone or it's history cannot be read
+        TextChannel channel = jda.getTextChannelById(channelId);
+        if (channel == null) return;
+        if (!channel.getGuild().getSelfMember()
+                .hasPermission(channel, Permission.MESSAGE_READ, Permission.MESSAGE_HISTORY)) return;
+
+        if (!stored.isEmpty())
+        {   // page through the history (newest first) until it is older than the oldest event message
+            long oldest = Collections.min(stored.keySet());
+            Set<Long> missing = new HashSet<>(stored.keySet());
+            for (Message message : channel.getIterableHistory().limit(100))
+            {
+                missing.remove(message.getIdLong());
+                if (missing.isEmpty() || message.getIdLong() <= oldest) break;
+            }
+            missing.forEach(messageId -> orphans.add(stored.get(messageId)));
+        }
+
+        if (!orphans.isEmpty())
+        {
+            Main.getDBDriver().getEventCollection().deleteMany(in("_id", orphans));
+            Logging.info(this.getClass(), "Pruned " + orphans.size() + " events on channel with ID: " + channelId);
+        }
     }
 }
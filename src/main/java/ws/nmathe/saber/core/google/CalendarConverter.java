@@ -196,18 +196,32 @@ public class CalendarConverter
             return;
         }
 
-        try // convert the list of Google Events into discord event entries
+        // convert the events while no other sort, sync, or edit operation runs on the schedule
+        Main.getScheduleManager().getSerializer().run(channel.getId(),
+                () -> this.convertEvents(events, address, channel, service));
+
+        // auto-sort
+        EntryManager.autoSort(true, channel.getId());
+    }
+
+    /**
+     * helper to importCalendar(), converts the list of Google Events into discord event entries
+     * and removes the schedule's events which are no longer on the calendar
+     * @param events the calendar's events
+     * @param address (String) valid address of calendar
+     * @param channel (MessageChannel) channel to sync with
+     * @param service connected calendar service with user credentials
+     */
+    private void convertEvents(Events events, String address, TextChannel channel, Calendar service)
+    {
+        try
         {
             channel.sendTyping().queue(); // send 'is typing' while the sync is in progress
 
-            /* lock the schedule for syncing; schedule is unlocked in finally block */
-            Main.getScheduleManager().lock(channel.getId());
-
             // change the zone to match the calendar
             // only if the zone has not been manually set for that schedule
             ZoneId zone = ZoneId.of( events.getTimeZone() );
-            Boolean syncZone = Main.getDBDriver().getScheduleCollection().find(eq("_id", channel.getId()))
-                    .first().getBoolean("timezone_sync", false);
+            Boolean syncZone = Main.getScheduleManager().isTimeZoneSync(channel.getId());
             if(syncZone)
             {
                 Main.getScheduleManager().setTimeZone( channel.getId(), zone );
@@ -458,12 +472,5 @@ public class CalendarConverter
         {
             Logging.exception(this.getClass(), e);
         }
-        finally
-        {
-            Main.getScheduleManager().unlock(channel.getId()); // syncing done, unlock the channel
-        }
-
-        // auto-sort
-        EntryManager.autoSort(true, channel.getId());
     }
 }
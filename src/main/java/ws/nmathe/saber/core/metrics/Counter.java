@@ -0,0 +1,29 @@
+package ws.nmathe.saber.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count which only increases (ie. the number of announcements dropped for being late)
+ */
+public class Counter
+{
+    private final AtomicLong value = new AtomicLong(0);
+
+    Counter()
+    {}
+
+    public void increment()
+    {
+        this.value.incrementAndGet();
+    }
+
+    public void add(long amount)
+    {
+        this.value.addAndGet(amount);
+    }
+
+    public long get()
+    {
+        return this.value.get();
+    }
+}
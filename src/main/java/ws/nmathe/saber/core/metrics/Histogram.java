@@ -0,0 +1,142 @@
+package ws.nmathe.saber.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Records the distribution of non-negative values (ie. milliseconds) in log-linear buckets, in the manner of an
+ * HDR histogram: each power of two is split into 16 buckets so that any recorded value is reported within ~6%
+ * of its true value, using constant memory and no locking regardless of the range or number of values.
+ * Negative values are recorded as zero.
+ */
+public class Histogram
+{
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;                       // buckets per power of two
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong sum = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    Histogram()
+    {}
+
+    /**
+     * records a value
+     * @param value the value
+     */
+    public void record(long value)
+    {
+        value = Math.max(0, value);
+        this.buckets.incrementAndGet(index(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * runs a task and records the milliseconds it took
+     * @param task the task
+     * @return the result of the task
+     */
+    public <T> T time(Supplier<T> task)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            return task.get();
+        }
+        finally
+        {
+            this.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * runs a task and records the milliseconds it took
+     * @param task the task
+     */
+    public void time(Runnable task)
+    {
+        this.time(() ->
+        {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount()
+    {
+        return this.count.get();
+    }
+
+    /**
+     * @return the sum of the values recorded
+     */
+    public long getSum()
+    {
+        return this.sum.get();
+    }
+
+    /**
+     * @return the largest value recorded
+     */
+    public long getMax()
+    {
+        return this.max.get();
+    }
+
+    /**
+     * @param percentile the percentile (0-100)
+     * @return the (approximate) value below which the given percentage of recorded values fall
+     */
+    public long getPercentile(double percentile)
+    {
+        long count = this.count.get();
+        if (count == 0) return 0;
+
+        long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count);
+        long seen = 0;
+        for (int i=0; i<BUCKETS; i++)
+        {
+            seen += this.buckets.get(i);
+            if (seen >= Math.max(1, rank))
+            {
+                return Math.min(upperBound(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * @return the bucket holding a value
+     */
+    private static int index(long value)
+    {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the largest value held by a bucket
+     */
+    private static long upperBound(int index)
+    {
+        if (index < SUB_BUCKETS) return index;
+
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long upper = ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
@@ -0,0 +1,163 @@
+package ws.nmathe.saber.core.metrics;
+
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Holds the named metrics of the bot (counters, gauges and histograms) which are read by exporters
+ * through a MetricsVisitor. A metric is identified by its name and labels, requesting a metric which already
+ * exists returns the existing metric so that metrics can be looked up where they are updated.
+ * Gauges (and counters which are tracked elsewhere) are registered with a supplier which is read on export.
+ */
+public class MetricsRegistry
+{
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();  // sorted for export
+
+    /**
+     * a registered metric
+     */
+    private static class Metric
+    {
+        final String name;
+        final String help;
+        final Map<String, String> labels;
+        final Object value;     // Counter, Histogram, or supplier of the value of a counter or gauge
+        final boolean gauge;
+
+        Metric(String name, String help, Map<String, String> labels, Object value, boolean gauge)
+        {
+            this.name = name;
+            this.help = help;
+            this.labels = labels;
+            this.value = value;
+            this.gauge = gauge;
+        }
+    }
+
+    /**
+     * @param name name of the counter
+     * @param help description of the counter
+     * @param labels label names and values, alternating
+     * @return the counter
+     */
+    public Counter counter(String name, String help, String... labels)
+    {
+        return (Counter) this.get(name, help, labels, Counter::new);
+    }
+
+    /**
+     * registers a count tracked elsewhere, replacing any count previously registered under the name and labels
+     * @param name name of the counter
+     * @param help description of the counter
+     * @param value supplies the count
+     * @param labels label names and values, alternating
+     */
+    public void counter(String name, String help, Supplier<Number> value, String... labels)
+    {
+        this.metrics.put(key(name, labels), new Metric(name, help, labelMap(labels), value, false));
+    }
+
+    /**
+     * registers a gauge, replacing any gauge previously registered under the name and labels
+     * @param name name of the gauge
+     * @param help description of the gauge
+     * @param value supplies the current value
+     * @param labels label names and values, alternating
+     */
+    public void gauge(String name, String help, Supplier<Number> value, String... labels)
+    {
+        this.metrics.put(key(name, labels), new Metric(name, help, labelMap(labels), value, true));
+    }
+
+    /**
+     * @param name name of the histogram
+     * @param help description of the histogram
+     * @param labels label names and values, alternating
+     * @return the histogram
+     */
+    public Histogram histogram(String name, String help, String... labels)
+    {
+        return (Histogram) this.get(name, help, labels, Histogram::new);
+    }
+
+    /**
+     * passes the current value of each metric to a visitor, metrics of the same name are visited consecutively
+     * @param visitor the visitor
+     */
+    @SuppressWarnings("unchecked")
+    public void visit(MetricsVisitor visitor)
+    {
+        for (Metric metric : this.metrics.values())
+        {
+            try
+            {
+                if (metric.value instanceof Counter)
+                {
+                    visitor.counter(metric.name, metric.help, metric.labels, ((Counter) metric.value).get());
+                }
+                else if (metric.value instanceof Histogram)
+                {
+                    visitor.histogram(metric.name, metric.help, metric.labels, (Histogram) metric.value);
+                }
+                else
+                {
+                    Number value = ((Supplier<Number>) metric.value).get();
+                    if (value == null) continue;
+                    if (metric.gauge)
+                    {
+                        visitor.gauge(metric.name, metric.help, metric.labels, value.doubleValue());
+                    }
+                    else
+                    {
+                        visitor.counter(metric.name, metric.help, metric.labels, value.longValue());
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                Logging.warn(this.getClass(), "Failed to read metric '" + metric.name + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * helper to counter() and histogram(), finds or creates a metric
+     */
+    private Object get(String name, String help, String[] labels, Supplier<Object> constructor)
+    {
+        return this.metrics.computeIfAbsent(key(name, labels),
+                k -> new Metric(name, help, labelMap(labels), constructor.get(), false)).value;
+    }
+
+    /**
+     * @return the key identifying a metric, metrics of the same name sort together
+     */
+    private static String key(String name, String[] labels)
+    {
+        StringBuilder key = new StringBuilder(name).append('\0');
+        for (String label : labels)
+        {
+            key.append(label).append('\0');
+        }
+        return key.toString();
+    }
+
+    private static Map<String, String> labelMap(String[] labels)
+    {
+        if (labels.length % 2 != 0)
+        {
+            throw new IllegalArgumentException("labels must be given as name and value pairs");
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i=0; i<labels.length; i+=2)
+        {
+            map.put(labels[i], labels[i+1]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
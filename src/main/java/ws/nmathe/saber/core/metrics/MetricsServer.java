@@ -0,0 +1,139 @@
+package ws.nmathe.saber.core.metrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.dv8tion.jda.core.JDA;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.HealthMonitor;
+import ws.nmathe.saber.core.ShardManager;
+import ws.nmathe.saber.utils.Logging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * A small HTTP server, bound to the address and port configured by 'metrics_address' and 'metrics_port'
+ * in the bot settings, which answers independently of Discord:
+ *   /metrics - the metrics registry in the Prometheus text format
+ *   /health  - readiness probe, 200 unless the bot is unhealthy (ie. still starting or no shard is connected), 503
+ */
+public class MetricsServer
+{
+    private HttpServer server;
+
+    /**
+     * starts the server, failure to start is logged and does not stop the bot
+     */
+    public void start()
+    {
+        int port = Main.getBotSettingsManager().getMetricsPort();
+        String address = Main.getBotSettingsManager().getMetricsAddress();
+        if (port <= 0)
+        {
+            Logging.info(this.getClass(), "The metrics endpoint is disabled.");
+            return;
+        }
+
+        try
+        {
+            this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+            this.server.createContext("/metrics", this::handleMetrics);
+            this.server.createContext("/health", this::handleHealth);
+            this.server.setExecutor(Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("MetricsServer-%d").setDaemon(true).build()));
+            this.server.start();
+            Logging.info(this.getClass(), "Serving metrics and health on " + address + ":" + port + ".");
+        }
+        catch (Exception e)
+        {
+            Logging.warn(this.getClass(), "Unable to start the metrics endpoint on " + address + ":" + port +
+                    ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * serves the metrics registry
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            this.checkShards();
+            this.respond(exchange, 200, "text/plain; version=0.0.4", PrometheusFormatter.format(Main.getMetrics()));
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+            this.respond(exchange, 500, "text/plain", e.toString());
+        }
+    }
+
+    /**
+     * serves the status of each component reported to the health monitor
+     */
+    private void handleHealth(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            this.checkShards();
+            HealthMonitor monitor = Main.getHealthMonitor();
+            HealthMonitor.Status status = monitor.getStatus();
+
+            StringBuilder body = new StringBuilder("status: ").append(status).append('\n');
+            for (Map.Entry<String, HealthMonitor.Check> check : monitor.getChecks().entrySet())
+            {
+                body.append(check.getKey()).append(": ").append(check.getValue().getStatus());
+                if (check.getValue().getDetail() != null)
+                {
+                    body.append(" (").append(check.getValue().getDetail()).append(')');
+                }
+                body.append('\n');
+            }
+            int code = status == HealthMonitor.Status.UNHEALTHY ? 503 : 200;
+            this.respond(exchange, code, "text/plain", body.toString());
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+            this.respond(exchange, 500, "text/plain", e.toString());
+        }
+    }
+
+    /**
+     * reports the connection status of the shards of this instance to the health monitor
+     */
+    private void checkShards()
+    {
+        ShardManager shardManager = Main.getShardManager();
+        if (shardManager == null)
+        {
+            Main.getHealthMonitor().report("shards", HealthMonitor.Status.UNHEALTHY, "starting");
+            return;
+        }
+
+        Collection<JDA> shards = shardManager.getShards();
+        long connected = shards.stream()
+                .filter(shard -> shard != null && shard.getStatus() == JDA.Status.CONNECTED)
+                .count();
+        HealthMonitor.Status status = connected == shards.size() ? HealthMonitor.Status.HEALTHY :
+                connected > 0 ? HealthMonitor.Status.DEGRADED : HealthMonitor.Status.UNHEALTHY;
+        Main.getHealthMonitor().report("shards", status, connected + " of " + shards.size() + " shards connected");
+    }
+
+    private void respond(HttpExchange exchange, int code, String type, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package ws.nmathe.saber.core.metrics;
+
+import java.util.Map;
+
+/**
+ * Receives the current value of each metric in a MetricsRegistry,
+ * implemented by whatever exports the metrics (ie. to a monitoring system or a chat message)
+ */
+public interface MetricsVisitor
+{
+    /**
+     * @param name name of the metric
+     * @param help description of the metric
+     * @param labels labels distinguishing the metric from others of the same name
+     * @param value the count
+     */
+    void counter(String name, String help, Map<String, String> labels, long value);
+
+    /**
+     * @param name name of the metric
+     * @param help description of the metric
+     * @param labels labels distinguishing the metric from others of the same name
+     * @param value the current value
+     */
+    void gauge(String name, String help, Map<String, String> labels, double value);
+
+    /**
+     * @param name name of the metric
+     * @param help description of the metric
+     * @param labels labels distinguishing the metric from others of the same name
+     * @param histogram the histogram
+     */
+    void histogram(String name, String help, Map<String, String> labels, Histogram histogram);
+}
@@ -0,0 +1,107 @@
+package ws.nmathe.saber.core.metrics;
+
+import java.util.Map;
+
+/**
+ * Writes the metrics of a MetricsRegistry in the Prometheus text exposition format.
+ * Histograms are written as summaries (50th, 90th, and 99th percentile, sum and count)
+ */
+public class PrometheusFormatter implements MetricsVisitor
+{
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final StringBuilder out = new StringBuilder();
+    private String previous = null;     // name of the last metric written
+
+    /**
+     * @param registry the registry
+     * @return the metrics of the registry in the text exposition format
+     */
+    public static String format(MetricsRegistry registry)
+    {
+        PrometheusFormatter formatter = new PrometheusFormatter();
+        registry.visit(formatter);
+        return formatter.out.toString();
+    }
+
+    @Override
+    public void counter(String name, String help, Map<String, String> labels, long value)
+    {
+        this.header(name, help, "counter");
+        this.sample(name, labels, null, value);
+    }
+
+    @Override
+    public void gauge(String name, String help, Map<String, String> labels, double value)
+    {
+        this.header(name, help, "gauge");
+        this.sample(name, labels, null, value);
+    }
+
+    @Override
+    public void histogram(String name, String help, Map<String, String> labels, Histogram histogram)
+    {
+        this.header(name, help, "summary");
+        for (double quantile : QUANTILES)
+        {
+            this.sample(name, labels, String.valueOf(quantile), histogram.getPercentile(quantile * 100));
+        }
+        this.sample(name + "_sum", labels, null, histogram.getSum());
+        this.sample(name + "_count", labels, null, histogram.getCount());
+    }
+
+    /**
+     * writes the HELP and TYPE lines, once for all metrics of the same name
+     */
+    private void header(String name, String help, String type)
+    {
+        if (name.equals(this.previous)) return;
+        this.previous = name;
+
+        if (help != null)
+        {
+            this.out.append("# HELP ").append(name).append(' ')
+                    .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        }
+        this.out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * writes a sample line
+     */
+    private void sample(String name, Map<String, String> labels, String quantile, double value)
+    {
+        this.out.append(name);
+        if (!labels.isEmpty() || quantile != null)
+        {
+            this.out.append('{');
+            String separator = "";
+            for (Map.Entry<String, String> label : labels.entrySet())
+            {
+                this.out.append(separator).append(label.getKey()).append("=\"")
+                        .append(escape(label.getValue())).append('"');
+                separator = ",";
+            }
+            if (quantile != null)
+            {
+                this.out.append(separator).append("quantile=\"").append(quantile).append('"');
+            }
+            this.out.append('}');
+        }
+        this.out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value))
+        {
+            this.out.append((long) value);
+        }
+        else
+        {
+            this.out.append(value);
+        }
+        this.out.append('\n');
+    }
+
+    private static String escape(String value)
+    {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
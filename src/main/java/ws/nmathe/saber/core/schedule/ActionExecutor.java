@@ -0,0 +1,374 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size thread pool which runs queued work by priority: event start/end actions first, then reminders and
+ * announcement overrides, then cosmetic timer refreshes.
+ * Within a priority the guilds with queued work take turns (round robin), so that a guild with a large backlog
+ * cannot delay the work of other guilds; a guild's own work runs in the order it was queued.
+ * The queue is bounded, when full event actions are rejected (and should be deferred by the caller),
+ * timer refreshes are refused while a modest backlog exists or any event action is waiting, the caller keeps
+ * refused refreshes and offers them again once the executor has caught up.
+ * Work which runs past the deadline of its priority is interrupted, which aborts blocking requests to Discord.
+ */
+public class ActionExecutor
+{
+    public enum Priority
+    {
+        ANNOUNCE(60), NOTIFY(60), TIMER(15);
+
+        final long timeout;     // seconds the work may run before it is interrupted
+
+        Priority(long timeout)
+        {
+            this.timeout = timeout;
+        }
+    }
+
+    static final int THREADS = 10;
+    private static final int CAPACITY = 5000;       // queued work before event actions are rejected
+    private static final int TIMER_BACKLOG = 100;   // queued work before timer refreshes are refused
+
+    private final Map<Priority, FairQueue> queues = new EnumMap<>(Priority.class);  // guarded by this
+    private int size = 0;                                                           // guarded by this
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ActionWatchdog-%d").build());
+
+    // metrics
+    private final AtomicLong refused = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong timeouts = new AtomicLong(0);
+    private final Cache<String, GuildStats> guildStats = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build();
+
+    /**
+     * queued work of a guild
+     */
+    private static class Task
+    {
+        final Priority priority;
+        final String guildId;
+        final Runnable work;
+        final long queued = System.nanoTime();
+
+        Task(Priority priority, String guildId, Runnable work)
+        {
+            this.priority = priority;
+            this.guildId = guildId;
+            this.work = work;
+        }
+    }
+
+    /**
+     * a worker thread and the task it is running, guarded by the worker itself so that the watchdog
+     * can only interrupt the thread while the task it timed out is still running
+     */
+    private static class Worker
+    {
+        Thread thread;
+        Task task = null;
+        long deadline;              // nano time
+        boolean overdue = false;    // interrupted, still running
+    }
+
+    /**
+     * the queued work of one priority, split by guild
+     */
+    private static class FairQueue
+    {
+        final Map<String, Deque<Task>> guilds = new HashMap<>();
+        final Deque<String> turns = new ArrayDeque<>();     // guilds with queued work, next to run first
+
+        void add(Task task)
+        {
+            Deque<Task> queue = this.guilds.get(task.guildId);
+            if (queue == null)
+            {
+                queue = new ArrayDeque<>();
+                this.guilds.put(task.guildId, queue);
+                this.turns.add(task.guildId);
+            }
+            queue.add(task);
+        }
+
+        Task poll()
+        {
+            String guildId = this.turns.poll();
+            if (guildId == null) return null;
+
+            Deque<Task> queue = this.guilds.get(guildId);
+            Task task = queue.poll();
+            if (queue.isEmpty())
+            {
+                this.guilds.remove(guildId);
+            }
+            else
+            {   // the guild's next task waits for the other guilds to take their turn
+                this.turns.add(guildId);
+            }
+            return task;
+        }
+
+        boolean isEmpty()
+        {
+            return this.turns.isEmpty();
+        }
+    }
+
+    /**
+     * wait times of the work run for a guild
+     */
+    public static class GuildStats
+    {
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong totalWait = new AtomicLong(0);
+        private final AtomicLong maxWait = new AtomicLong(0);
+
+        void record(long wait)
+        {
+            this.count.incrementAndGet();
+            this.totalWait.addAndGet(wait);
+            this.maxWait.accumulateAndGet(wait, Math::max);
+        }
+
+        public long getCount()
+        {
+            return this.count.get();
+        }
+
+        public long getAverageWait()
+        {
+            long count = this.count.get();
+            return count == 0 ? 0 : this.totalWait.get() / count;
+        }
+
+        public long getMaxWait()
+        {
+            return this.maxWait.get();
+        }
+    }
+
+    public ActionExecutor()
+    {
+        for (Priority priority : Priority.values())
+        {
+            this.queues.put(priority, new FairQueue());
+        }
+
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("ActionExecutor-%d").build();
+        for (int i=0; i<THREADS; i++)
+        {
+            Worker worker = new Worker();
+            worker.thread = factory.newThread(() -> this.work(worker));
+            this.workers.add(worker);
+        }
+        this.workers.forEach(worker -> worker.thread.start());
+        this.watchdog.scheduleWithFixedDelay(this::interruptOverdue, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * queues work to run once no work of higher priority is waiting and the guild's turn comes
+     * @param priority the priority of the work
+     * @param guildId ID of the guild the work is for
+     * @param work the work
+     * @return false if the work was rejected
+     */
+    public synchronized boolean execute(Priority priority, String guildId, Runnable work)
+    {
+        if (priority == Priority.TIMER)
+        {
+            boolean actionsWaiting = !this.queues.get(Priority.ANNOUNCE).isEmpty() ||
+                    !this.queues.get(Priority.NOTIFY).isEmpty();
+            if (this.size >= TIMER_BACKLOG || actionsWaiting)
+            {
+                this.refused.incrementAndGet();
+                return false;
+            }
+        }
+        else if (this.size >= CAPACITY)
+        {
+            this.rejected.incrementAndGet();
+            return false;
+        }
+
+        this.queues.get(priority).add(new Task(priority, guildId, work));
+        this.size++;
+        this.notify();
+        return true;
+    }
+
+    /**
+     * @return the number of queued tasks
+     */
+    public synchronized int getQueueDepth()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return the number of queued tasks of each guild with queued work
+     */
+    public synchronized Map<String, Integer> getGuildQueueDepths()
+    {
+        Map<String, Integer> depths = new HashMap<>();
+        for (FairQueue queue : this.queues.values())
+        {
+            queue.guilds.forEach((guildId, tasks) -> depths.merge(guildId, tasks.size(), Integer::sum));
+        }
+        return depths;
+    }
+
+    /**
+     * @param guildId ID of a guild
+     * @return the wait times of the guild's work, null if no work was run for the guild recently
+     */
+    public GuildStats getGuildStats(String guildId)
+    {
+        return this.guildStats.getIfPresent(guildId);
+    }
+
+    /**
+     * @return the number of times a timer refresh was refused because the executor was busy
+     */
+    public long getRefused()
+    {
+        return this.refused.get();
+    }
+
+    /**
+     * @return the number of event actions rejected because the queue was full
+     */
+    public long getRejected()
+    {
+        return this.rejected.get();
+    }
+
+    /**
+     * @return the number of tasks interrupted for running past their deadline
+     */
+    public long getTimeouts()
+    {
+        return this.timeouts.get();
+    }
+
+    /**
+     * @return the number of worker threads currently running past their deadline
+     * (the work did not respond to being interrupted)
+     */
+    public int getOverdue()
+    {
+        int count = 0;
+        for (Worker worker : this.workers)
+        {
+            synchronized (worker)
+            {
+                if (worker.overdue) count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * interrupts the worker threads which are running past the deadline of their work
+     */
+    private void interruptOverdue()
+    {
+        long now = System.nanoTime();
+        for (Worker worker : this.workers)
+        {
+            // each task is interrupted once, the worker is counted as overdue until the task returns
+            synchronized (worker)
+            {
+                if (worker.task == null || worker.overdue || now - worker.deadline <= 0) continue;
+
+                worker.overdue = true;
+                this.timeouts.incrementAndGet();
+                Logging.warn(this.getClass(), "Interrupting " + worker.thread.getName() +
+                        ", the task ran past its deadline.");
+                worker.thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * takes the next task, the highest priority with queued work is served first
+     */
+    private synchronized Task take() throws InterruptedException
+    {
+        while (true)
+        {
+            for (FairQueue queue : this.queues.values())
+            {
+                Task task = queue.poll();
+                if (task != null)
+                {
+                    this.size--;
+                    return task;
+                }
+            }
+            this.wait();
+        }
+    }
+
+    /**
+     * the loop of each worker thread
+     */
+    private void work(Worker worker)
+    {
+        while (true)
+        {
+            Task task;
+            try
+            {
+                task = this.take();
+            }
+            catch (InterruptedException e)
+            {   // no task is running, nothing to abort
+                continue;
+            }
+
+            try
+            {
+                long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.queued);
+                if (task.guildId != null) this.guildStats.get(task.guildId, GuildStats::new).record(wait);
+
+                synchronized (worker)
+                {
+                    worker.task = task;
+                    worker.deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(task.priority.timeout);
+                }
+                task.work.run();
+            }
+            catch (Exception e)
+            {
+                Logging.exception(ActionExecutor.class, e);
+            }
+            finally
+            {
+                // the watchdog interrupts only while holding the worker, so once cleared no interrupt
+                // meant for this task can reach the next one
+                synchronized (worker)
+                {
+                    worker.task = null;
+                    worker.overdue = false;
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+}
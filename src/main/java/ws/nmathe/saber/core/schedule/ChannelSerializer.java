@@ -0,0 +1,263 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs the operations (sort, sync, edit) submitted for a schedule channel one at a time in the order they were
+ * submitted, operations on different channels run in parallel. A channel's queue only occupies a thread
+ * while it has operations to run.
+ * An operation which submits and waits on another operation for the same channel runs the other operation
+ * immediately (rather than waiting on itself).
+ * Waiting on an operation is bounded and responds to interruption (ie. by the ActionExecutor's deadline),
+ * a waiter which gives up cancels its operation if the operation has not yet started.
+ */
+public class ChannelSerializer
+{
+    private static final long CALL_TIMEOUT = 5;     // minutes to wait on an operation before giving up
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("ChannelSerializer-%d").build());
+
+    private final Map<String, ChannelQueue> queues = new HashMap<>();    // guarded by this
+    private final ThreadLocal<String> current = new ThreadLocal<>();     // channel of the running operation
+
+    // metrics
+    private final AtomicLong completed = new AtomicLong(0);     // operations run
+    private final AtomicLong totalWait = new AtomicLong(0);     // ms operations spent queued
+    private final AtomicLong maxWait = new AtomicLong(0);       // longest ms an operation spent queued
+
+    /**
+     * an operation waiting in a channel's queue
+     */
+    private static class Operation
+    {
+        final Supplier<?> task;
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        final long queued = System.nanoTime();
+
+        Operation(Supplier<?> task)
+        {
+            this.task = task;
+        }
+    }
+
+    /**
+     * the pending operations of a channel
+     */
+    private static class ChannelQueue
+    {
+        final Deque<Operation> operations = new ArrayDeque<>();
+        boolean running = false;    // a thread is draining the queue
+    }
+
+    /**
+     * queues an operation on a channel
+     * @param channelId ID of the channel
+     * @param task the operation
+     * @return future completed with the result of the operation, cancelled if the queue was cleared
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String channelId, Supplier<T> task)
+    {
+        Operation operation = new Operation(task);
+        synchronized (this)
+        {
+            ChannelQueue queue = this.queues.computeIfAbsent(channelId, k -> new ChannelQueue());
+            queue.operations.add(operation);
+            if (!queue.running)
+            {
+                queue.running = true;
+                this.executor.execute(() -> this.drain(channelId, queue));
+            }
+        }
+        return (CompletableFuture<T>) operation.future;
+    }
+
+    /**
+     * queues an operation on a channel without waiting on it
+     * @param channelId ID of the channel
+     * @param task the operation
+     */
+    public void execute(String channelId, Runnable task)
+    {
+        this.submit(channelId, () ->
+        {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * queues an operation on a channel and waits for it to complete
+     * @param channelId ID of the channel
+     * @param task the operation
+     * @return the result of the operation, null if the queue was cleared before the operation ran
+     * @throws CompletionException if interrupted or timed out while waiting on the operation
+     */
+    public <T> T call(String channelId, Supplier<T> task)
+    {
+        if (channelId.equals(this.current.get()))
+        {   // already running an operation of the channel
+            return task.get();
+        }
+
+        CompletableFuture<T> future = this.submit(channelId, task);
+        try
+        {
+            return future.get(CALL_TIMEOUT, TimeUnit.MINUTES);
+        }
+        catch (CancellationException e)
+        {
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new CompletionException(e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CompletionException("Interrupted while waiting on an operation of channel " + channelId, e);
+        }
+        catch (TimeoutException e)
+        {
+            future.cancel(false);
+            throw new CompletionException("Timed out waiting on an operation of channel " + channelId, e);
+        }
+    }
+
+    /**
+     * queues an operation on a channel and waits for it to complete
+     * @param channelId ID of the channel
+     * @param task the operation
+     */
+    public void run(String channelId, Runnable task)
+    {
+        this.call(channelId, () ->
+        {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * drops all queued operations, operations which are already running are not interrupted
+     */
+    public synchronized void clear()
+    {
+        for (ChannelQueue queue : this.queues.values())
+        {
+            queue.operations.forEach(operation -> operation.future.cancel(false));
+            queue.operations.clear();
+        }
+    }
+
+    /**
+     * @return the number of operations waiting to run
+     */
+    public synchronized int getQueueDepth()
+    {
+        int depth = 0;
+        for (ChannelQueue queue : this.queues.values())
+        {
+            depth += queue.operations.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of channels with running or waiting operations
+     */
+    public synchronized int getActiveChannels()
+    {
+        return this.queues.size();
+    }
+
+    /**
+     * @return the number of operations run
+     */
+    public long getCompleted()
+    {
+        return this.completed.get();
+    }
+
+    /**
+     * @return the average milliseconds an operation waited in queue
+     */
+    public long getAverageWait()
+    {
+        long count = this.completed.get();
+        return count == 0 ? 0 : this.totalWait.get() / count;
+    }
+
+    /**
+     * @return the longest milliseconds an operation waited in queue
+     */
+    public long getMaxWait()
+    {
+        return this.maxWait.get();
+    }
+
+    /**
+     * runs the operations of a channel's queue until the queue is empty
+     */
+    private void drain(String channelId, ChannelQueue queue)
+    {
+        this.current.set(channelId);
+        try
+        {
+            while (true)
+            {
+                Operation operation;
+                synchronized (this)
+                {
+                    operation = queue.operations.poll();
+                    if (operation == null)
+                    {
+                        queue.running = false;
+                        this.queues.remove(channelId, queue);
+                        return;
+                    }
+                }
+
+                if (operation.future.isCancelled()) continue;     // the waiter gave up
+
+                long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - operation.queued);
+                this.totalWait.addAndGet(wait);
+                this.maxWait.accumulateAndGet(wait, Math::max);
+                this.completed.incrementAndGet();
+
+                try
+                {
+                    operation.future.complete(operation.task.get());
+                }
+                catch (Throwable e)
+                {
+                    operation.future.completeExceptionally(e);
+                }
+            }
+        }
+        finally
+        {
+            this.current.remove();
+        }
+    }
+}
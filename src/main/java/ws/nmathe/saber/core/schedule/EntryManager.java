@@ -1,27 +1,48 @@
 package ws.nmathe.saber.core.schedule;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.ErrorCategory;
 import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import com.vdurmont.emoji.EmojiManager;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Emote;
+import net.dv8tion.jda.core.entities.MessageEmbed;
 import net.dv8tion.jda.core.entities.TextChannel;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
+import ws.nmathe.saber.core.metrics.MetricsRegistry;
 import ws.nmathe.saber.utils.Logging;
 import ws.nmathe.saber.utils.MessageUtilities;
 import net.dv8tion.jda.core.entities.Message;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.*;
-import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.*;
 
 
 /**
@@ -33,12 +54,39 @@ import static com.mongodb.client.model.Updates.set;
 public class EntryManager
 {
     private Random generator;
+    private EntryTimeline timeline;
+    private MessageIndex messageIndex;
+
+    // how many random IDs are tried when inserting a new event before giving up
+    private static final int MAX_INSERT_ATTEMPTS = 10;
+
+    // how many times a conflicting update of an event is reapplied before giving up
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+
+    // number of events updated by each bulk write of a backfill
+    private static final int BACKFILL_BATCH = 500;
+
+    // digest of the display last sent to each event message, keyed by message ID
+    // entries are only written once an edit succeeds, so a failed edit is retried on the next reload
+    private Cache<String, String> displayCache = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build();
+
+    // collapses display refreshes requested in quick succession
+    private final RefreshCoordinator refresher = new RefreshCoordinator();
+
+    // runs event actions and timer refreshes by priority
+    private final ActionExecutor actionExecutor = new ActionExecutor();
+
     public enum type { PROCESS, UPDATE1, UPDATE2, UPDATE3 }
 
     /** construct EntryManager and seed random from OS random source */
     public EntryManager()
     {   // use system random to seed to avoid repeat seed values on bot restart
         this.generator = new Random(new SecureRandom().nextLong());
+        this.timeline = new EntryTimeline();
+        this.messageIndex = new MessageIndex();
     }
 
     /**
@@ -47,11 +95,35 @@ public class EntryManager
      */
     public void init()
     {
-        /* thread to process events */
+        // expose the state of event processing
+        MetricsRegistry metrics = Main.getMetrics();
+        metrics.gauge("saber_events_processing", "Events currently being processed",
+                EntryProcessor::getProcessingCount);
+        metrics.gauge("saber_timeline_actions", "Upcoming event actions indexed by the timeline",
+                this.timeline::size);
+        metrics.gauge("saber_timeline_actions_due", "Event actions which are due but not yet dispatched",
+                this.timeline::countDue);
+        metrics.gauge("saber_action_queue_depth", "Event actions and timer refreshes waiting to run",
+                this.actionExecutor::getQueueDepth);
+        metrics.gauge("saber_action_threads_overdue", "Action threads running past their deadline",
+                this.actionExecutor::getOverdue);
+        metrics.counter("saber_action_timeouts_total", "Event actions interrupted for running past their deadline",
+                this.actionExecutor::getTimeouts);
+        metrics.counter("saber_actions_rejected_total", "Event actions deferred because the action queue was full",
+                this.actionExecutor::getRejected);
+        metrics.counter("saber_timer_refreshes_refused_total",
+                "Timer refreshes held back because the bot was busy with event actions",
+                this.actionExecutor::getRefused);
+        metrics.gauge("saber_timer_refreshes_pending", "Timer refreshes waiting for the action executor",
+                this.refresher::getPendingTimers);
+
+        /* thread to load events with upcoming actions into the timeline */
         ScheduledExecutorService announcementScheduler = Executors.newSingleThreadScheduledExecutor();
+        announcementScheduler.execute(this::backfillShardIds);     // both run before the first load
+        announcementScheduler.execute(this::backfillNextAction);
         announcementScheduler.scheduleWithFixedDelay(
                 new EntryProcessor(type.PROCESS),
-                15, 15, TimeUnit.SECONDS);
+                0, EntryProcessor.LOOKAHEAD/2, TimeUnit.MINUTES);
 
         // scheduler for threads to adjust entry display timers
         ScheduledExecutorService updateDisplayScheduler = Executors.newSingleThreadScheduledExecutor();
@@ -153,14 +225,20 @@ public class EntryManager
                                 .append("expire", finalExpire)
                                 .append("deadline", finalDeadline)
                                 .append("guildId", se.getGuildId())
+                                .append("shardId", ShardManager.getShardId(se.getGuildId()))
                                 .append("location", se.getLocation())
                                 .append("description", se.getDescription())
-                                .append("color", se.getColor());
+                                .append("color", se.getColor())
+                                .append("version", 1);
+                entryDocument.putAll(nextActionFields(se));
 
-                Main.getDBDriver().getEventCollection().insertOne(entryDocument);
+                insertEntry(se, entryDocument, msg);
+                timeline.index(se);
+                messageIndex.put(se.getId(), msg.getId());
+                displayUpdated(msg.getId(), message);
 
                 // auto-sort the schedule if configured
-                autoSort(sort, channelId);
+                autoSort(sort, channelId, se.getId());
             }
             catch(Exception e)
             {
@@ -179,6 +257,94 @@ public class EntryManager
      * @return true if successful, otherwise false
      */
     public boolean updateEntry(ScheduleEntry se, boolean sort)
+    {
+        // refuse the write if made on behalf of an event action whose lease was lost
+        Main.getLeaseManager().checkHeld();
+
+        // wait on any sort or sync of the schedule to finish before updating
+        Boolean updated = Main.getScheduleManager().getSerializer()
+                .call(se.getChannelId(), () -> this.writeEntry(se, sort));
+        return updated != null && updated;
+    }
+
+    /**
+     * helper to updateEntry(), writes the entry to the database and updates the event's message.
+     * The write is conditional on the event's version being the version the entry was loaded from, if another
+     * write came first the changes made to the entry are reapplied to the event as it is now and the write retried
+     */
+    private boolean writeEntry(ScheduleEntry se, boolean sort)
+    {
+        try
+        {
+            Document changes = null;    // fields changed by the caller, determined on the first conflict
+            for (int attempt = 1; attempt <= MAX_WRITE_ATTEMPTS; attempt++)
+            {
+                // set every field of the event, fields not managed by the event (such as leases) are preserved
+                Document entryDocument = entryFields(se);
+                entryDocument.putAll(nextActionFields(se));
+
+                UpdateResult res = Main.getDBDriver().getEventCollection()
+                        .updateOne(and(eq("_id", se.getId()), versionFilter(se.getVersion())),
+                                new Document("$set", entryDocument).append("$inc", new Document("version", 1)));
+                if (!res.wasAcknowledged())
+                {
+                    Logging.warn(this.getClass(), "Attempt to update '"+se.getTitle()+"' was unacknowledged!");
+                    return false; // return false, might result in skipped announcement or other issues
+                }
+
+                if (res.getMatchedCount() > 0)
+                {
+                    this.timeline.index(se);
+                    this.messageIndex.put(se.getId(), se.getMessageId());
+
+                    // update the event message with the information changes (if any)
+                    // this may (is) over-aggressive, however it is convenient and easier to manage
+                    // (ie. avoid updating the display in other code sections)
+                    se.reloadDisplay();
+
+                    // auto-sort the schedule if configured
+                    // may be necessary if the start time was changed
+                    autoSort(sort, se.getChannelId(), se.getId());
+                    return true;
+                }
+
+                // the event was changed since the entry was loaded (or was removed)
+                Document current = Main.getDBDriver().getEventCollection().find(eq("_id", se.getId())).first();
+                if (current == null || se.getSnapshot() == null) return false;
+                if (changes == null)
+                {
+                    changes = new Document();
+                    Document original = entryFields(new ScheduleEntry(se.getSnapshot()));
+                    for (Map.Entry<String, Object> field : entryFields(se).entrySet())
+                    {
+                        if (!Objects.equals(field.getValue(), original.get(field.getKey())))
+                        {
+                            changes.put(field.getKey(), field.getValue());
+                        }
+                    }
+                }
+                if (changes.isEmpty()) return true;
+
+                current.putAll(changes);
+                se = new ScheduleEntry(current);
+            }
+            Logging.warn(this.getClass(), "Gave up updating '"+se.getTitle()+"' ["+se.getId()+"] " +
+                    "after "+MAX_WRITE_ATTEMPTS+" conflicting writes!");
+            return false;
+        }
+        catch(Exception e)
+        {
+            Logging.exception(EntryManager.class, e);
+            return false;
+        }
+    }
+
+    /**
+     * creates the fields of an event's document which are set by updateEntry()
+     * @param se the schedule entry
+     * @return document of the fields
+     */
+    private static Document entryFields(ScheduleEntry se)
     {
         // process expiration date
         Date expire = null;
@@ -194,71 +360,50 @@ public class EntryManager
             deadline = Date.from(se.getDeadline().toInstant());
         }
 
-        // update message display
-        Date finalExpire = expire;
-        Date finalDeadline = deadline;
-
-        try
-        {
-            // replace whole document
-            Document entryDocument =
-                    new Document("_id", se.getId())
-                            .append("title", se.getTitle())
-                            .append("start", Date.from(se.getStart().toInstant()))
-                            .append("end", Date.from(se.getEnd().toInstant()))
-                            .append("comments", se.getComments())
-                            .append("recurrence", se.getRepeat())
-                            .append("reminders", se.getReminders())
-                            .append("end_reminders", se.getEndReminders())
-                            .append("url", se.getTitleUrl())
-                            .append("hasStarted", se.hasStarted())
-                            .append("messageId", se.getMessageId())
-                            .append("channelId", se.getChannelId())
-                            .append("googleId", se.getGoogleId())
-                            .append("rsvp_members", se.getRsvpMembers())
-                            .append("rsvp_limits", se.getRsvpLimits())
-                            .append("start_disabled", se.isQuietStart())
-                            .append("end_disabled", se.isQuietEnd())
-                            .append("reminders_disabled", se.isQuietRemind())
-                            .append("expire", finalExpire)
-                            .append("orig_start", Date.from(se.getRecurrence().getOriginalStart().toInstant()))
-                            .append("count", se.getRecurrence().getCount())
-                            .append("image", se.getImageUrl())
-                            .append("thumbnail", se.getThumbnailUrl())
-                            .append("deadline", finalDeadline)
-                            .append("guildId", se.getGuildId())
-                            .append("announcements", new ArrayList<>(se.getAnnouncements()))
-                            .append("announcement_dates", se.getAnnouncementDates())
-                            .append("announcement_times", se.getAnnouncementTimes())
-                            .append("announcement_messages", se.getAnnouncementMessages())
-                            .append("announcement_targets", se.getAnnouncementTargets())
-                            .append("location", se.getLocation())
-                            .append("description", se.getDescription())
-                            .append("color", se.getColor());
-
-            UpdateResult res = Main.getDBDriver().getEventCollection()
-                    .replaceOne(eq("_id", se.getId()), entryDocument);
-            if (!res.wasAcknowledged())
-            {
-                Logging.warn(this.getClass(), "Attempt to update '"+se.getTitle()+"' was unacknowledged!");
-                return false; // return false, might result in skipped announcement or other issues
-            }
-
-            // update the event message with the information changes (if any)
-            // this may (is) over-aggressive, however it is convenient and easier to manage
-            // (ie. avoid updating the display in other code sections)
-            se.reloadDisplay();
+        return new Document("title", se.getTitle())
+                .append("start", Date.from(se.getStart().toInstant()))
+                .append("end", Date.from(se.getEnd().toInstant()))
+                .append("comments", se.getComments())
+                .append("recurrence", se.getRepeat())
+                .append("reminders", se.getReminders())
+                .append("end_reminders", se.getEndReminders())
+                .append("url", se.getTitleUrl())
+                .append("hasStarted", se.hasStarted())
+                .append("messageId", se.getMessageId())
+                .append("channelId", se.getChannelId())
+                .append("googleId", se.getGoogleId())
+                .append("rsvp_members", se.getRsvpMembers())
+                .append("rsvp_limits", se.getRsvpLimits())
+                .append("start_disabled", se.isQuietStart())
+                .append("end_disabled", se.isQuietEnd())
+                .append("reminders_disabled", se.isQuietRemind())
+                .append("expire", expire)
+                .append("orig_start", Date.from(se.getRecurrence().getOriginalStart().toInstant()))
+                .append("count", se.getRecurrence().getCount())
+                .append("image", se.getImageUrl())
+                .append("thumbnail", se.getThumbnailUrl())
+                .append("deadline", deadline)
+                .append("guildId", se.getGuildId())
+                .append("shardId", ShardManager.getShardId(se.getGuildId()))
+                .append("announcements", new ArrayList<>(se.getAnnouncements()))
+                .append("announcement_dates", se.getAnnouncementDates())
+                .append("announcement_times", se.getAnnouncementTimes())
+                .append("announcement_messages", se.getAnnouncementMessages())
+                .append("announcement_targets", se.getAnnouncementTargets())
+                .append("location", se.getLocation())
+                .append("description", se.getDescription())
+                .append("color", se.getColor());
+    }
 
-            // auto-sort the schedule if configured
-            // may be necessary if the start time was changed
-            autoSort(sort, se.getChannelId());
-            return true;
-        }
-        catch(Exception e)
-        {
-            Logging.exception(EntryManager.class, e);
-            return false;
-        }
+    /**
+     * matches an event document written at a certain version,
+     * documents written before versioning was introduced have no version field (version 0)
+     * @param version the version of the event
+     * @return filter matching the version
+     */
+    private static Bson versionFilter(int version)
+    {
+        return version == 0 ? exists("version", false) : eq("version", version);
     }
 
     /**
@@ -268,16 +413,20 @@ public class EntryManager
      */
     public boolean startEvent(ScheduleEntry se)
     {
+        Main.getLeaseManager().checkHeld();
         try
         {
             UpdateResult res = Main.getDBDriver().getEventCollection()
                     // using the 'update many' call seems to work more effectively
-                    .updateMany(eq("_id", se.getId()), set("hasStarted", true));
+                    .updateMany(eq("_id", se.getId()),
+                            new Document("$set", nextActionFields(se).append("hasStarted", true))
+                                    .append("$inc", new Document("version", 1)));
             if (!res.wasAcknowledged())
             {
                 Logging.warn(this.getClass(), "Attempt to update '"+se.getTitle()+"' was unacknowledged!");
                 return false; // might result in skipped announcements or other issues
             }
+            this.timeline.index(se);
             se.reloadDisplay();
             return true;
         }
@@ -288,6 +437,232 @@ public class EntryManager
         }
     }
 
+    /**
+     * atomically adds a user to an event's rsvp group, the group's limit is enforced by the update's filter
+     * so that concurrent rsvps cannot overfill the group or overwrite each other
+     * @param entryId ID of the event
+     * @param group name of the rsvp group to add the user to
+     * @param userId ID of the user
+     * @param limit the group's member limit (-1 if unlimited)
+     * @param exclusive the other rsvp groups to remove the user from (empty if rsvps are not exclusive)
+     * @return the updated event, null if the user was already in the group, the group is full, or the event is gone
+     */
+    public ScheduleEntry addRSVP(Integer entryId, String group, String userId,
+                                 int limit, Collection<String> exclusive)
+    {
+        if (limit == 0) return null;
+
+        String field = "rsvp_members."+group;
+        List<Bson> conditions = new ArrayList<>();
+        conditions.add(eq("_id", entryId));
+        conditions.add(ne(field, userId));
+        if (limit > 0)
+        {   // the group is not full if the array has no element at the index of the limit
+            conditions.add(exists(field+"."+(limit-1), false));
+        }
+
+        List<Bson> updates = new ArrayList<>();
+        updates.add(addToSet(field, userId));
+        for (String other : exclusive)
+        {
+            if (!other.equals(group)) updates.add(pull("rsvp_members."+other, userId));
+        }
+
+        return this.updateRSVP(and(conditions), combine(updates));
+    }
+
+    /**
+     * atomically removes a user from all rsvp groups of an event
+     * @param entryId ID of the event
+     * @param userId ID of the user
+     * @param groups the event's rsvp groups
+     * @return the updated event, null if the user was not in any group or the event is gone
+     */
+    public ScheduleEntry removeRSVP(Integer entryId, String userId, Collection<String> groups)
+    {
+        if (groups.isEmpty()) return null;
+
+        List<Bson> memberOf = new ArrayList<>();
+        List<Bson> updates = new ArrayList<>();
+        for (String group : groups)
+        {
+            memberOf.add(eq("rsvp_members."+group, userId));
+            updates.add(pull("rsvp_members."+group, userId));
+        }
+        return this.updateRSVP(and(eq("_id", entryId), or(memberOf)), combine(updates));
+    }
+
+    /**
+     * removes a user from every rsvp group of every event in a guild, including groups which are no longer
+     * configured on the event's schedule. Events are grouped by the groups the user is in, so that a single
+     * update is made for each distinct set of groups. The displays of the events the user was removed from
+     * are refreshed
+     * @param guildId ID of the guild
+     * @param userId ID of the user
+     * @return the number of events the user was removed from
+     */
+    public int removeRSVPs(String guildId, String userId)
+    {
+        // the events the user has rsvp'ed to, keyed by the groups the user is in
+        Map<Set<String>, List<Integer>> byGroups = new HashMap<>();
+        Main.getDBDriver().getEventCollection()
+                .find(eq("guildId", guildId))
+                .projection(fields(include("_id", "rsvp_members")))
+                .forEach((Consumer<? super Document>) document ->
+                {
+                    Document members = (Document) document.get("rsvp_members");
+                    if (members == null) return;
+
+                    Set<String> groups = new HashSet<>();
+                    members.forEach((group, users) ->
+                    {
+                        if (users instanceof List && ((List<?>) users).contains(userId)) groups.add(group);
+                    });
+                    if (!groups.isEmpty())
+                    {
+                        byGroups.computeIfAbsent(groups, k -> new ArrayList<>()).add(document.getInteger("_id"));
+                    }
+                });
+
+        List<Integer> entryIds = new ArrayList<>();
+        for (Map.Entry<Set<String>, List<Integer>> entry : byGroups.entrySet())
+        {
+            List<Bson> updates = new ArrayList<>();
+            for (String group : entry.getKey())
+            {
+                updates.add(pull("rsvp_members."+group, userId));
+            }
+            updates.add(inc("version", 1));
+            Main.getDBDriver().getEventCollection()
+                    .updateMany(in("_id", entry.getValue()), combine(updates));
+            entryIds.addAll(entry.getValue());
+        }
+        if (entryIds.isEmpty()) return 0;
+
+        this.refresher.requestAll(entryIds);
+        return entryIds.size();
+    }
+
+    /**
+     * helper to addRSVP() and removeRSVP(), applies the update and returns the event as it is after the update
+     */
+    private ScheduleEntry updateRSVP(Bson filter, Bson update)
+    {
+        try
+        {
+            Document document = Main.getDBDriver().getEventCollection()
+                    .findOneAndUpdate(filter, combine(update, inc("version", 1)),
+                    new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+            return document == null ? null : new ScheduleEntry(document);
+        }
+        catch (MongoException e)
+        {
+            Logging.exception(this.getClass(), e);
+            return null;
+        }
+    }
+
+    /**
+     * creates the 'next_fire' and 'next_action' fields of an event's document,
+     * the EntryProcessor finds due events by 'next_fire' and dispatches the action named by 'next_action'
+     * @param se the schedule entry
+     * @return document containing both fields
+     */
+    private static Document nextActionFields(ScheduleEntry se)
+    {
+        Map.Entry<Date, EntryProcessor.ActionType> next = se.getNextAction();
+        return new Document("next_fire", next == null ? null : next.getKey())
+                .append("next_action", next == null ? null : next.getValue().name())
+                .append("retries", 0);
+    }
+
+    /**
+     * sets the 'next_fire' and 'next_action' fields of events written before the fields were introduced,
+     * the updates are written in batches and only apply to events which have not been written in the meantime
+     */
+    private void backfillNextAction()
+    {
+        try
+        {
+            MongoCollection<Document> collection = Main.getDBDriver().getEventCollection();
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            int count = 0;
+            for (Document document : collection.find(exists("next_fire", false)).batchSize(BACKFILL_BATCH))
+            {
+                ScheduleEntry se = new ScheduleEntry(document);
+                updates.add(new UpdateOneModel<>(
+                        and(eq("_id", se.getId()), exists("next_fire", false), versionFilter(se.getVersion())),
+                        new Document("$set", nextActionFields(se))));
+                if (updates.size() >= BACKFILL_BATCH)
+                {
+                    count += collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+                    updates.clear();
+                }
+            }
+            if (!updates.isEmpty())
+            {
+                count += collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+            }
+            if (count > 0)
+            {
+                Logging.info(this.getClass(), "Set the next action of "+count+" events.");
+            }
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
+
+    /**
+     * sets the 'shardId' field of events and schedules written before the field was introduced,
+     * if the total number of shards has changed since the last run the field of all documents is recomputed
+     */
+    private void backfillShardIds()
+    {
+        try
+        {
+            int shardTotal = Main.getBotSettingsManager().getShardTotal();
+            Document sharding = Main.getDBDriver().getSystemCollection().find(eq("_id", "sharding")).first();
+            boolean changed = sharding == null || sharding.getInteger("shard_total", -1) != shardTotal;
+
+            Bson filter = changed ? new Document() : exists("shardId", false);
+            int count = this.backfillShardIds(Main.getDBDriver().getEventCollection(), filter) +
+                    this.backfillShardIds(Main.getDBDriver().getScheduleCollection(), filter);
+            if (count > 0)
+            {
+                Logging.info(this.getClass(), "Set the shard ID of documents for "+count+" guilds.");
+            }
+
+            Main.getDBDriver().getSystemCollection().updateOne(eq("_id", "sharding"),
+                    set("shard_total", shardTotal), new UpdateOptions().upsert(true));
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
+
+    /**
+     * helper to backfillShardIds(), updates the documents of each guild with a single bulk write
+     * @return the number of guilds updated
+     */
+    private int backfillShardIds(MongoCollection<Document> collection, Bson filter)
+    {
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (String guildId : collection.distinct("guildId", filter, String.class))
+        {
+            if (guildId == null) continue;
+            updates.add(new UpdateManyModel<>(and(filter, eq("guildId", guildId)),
+                    set("shardId", ShardManager.getShardId(guildId))));
+        }
+        if (!updates.isEmpty())
+        {
+            collection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+        return updates.size();
+    }
+
     /**
      * adds rsvp reactions to a message
      * @param options (Map) mapping of rsvp emojis to rsvp names
@@ -338,7 +713,7 @@ public class EntryManager
 
 
     /**
-     * Handles automatic sorting of a channel
+     * Handles automatic sorting of a channel, the sort is queued behind the schedule's other operations
      * @param sort (boolean) should the channel be sorted?
      * @param channelId (String) ID of the channel to sort
      */
@@ -349,11 +724,38 @@ public class EntryManager
             int sortType = Main.getScheduleManager().getAutoSort(channelId);
             if(sortType == 1)
             {
-                Main.getScheduleManager().sortSchedule(channelId, false);
+                Main.getScheduleManager().getSerializer()
+                        .execute(channelId, () -> Main.getScheduleManager().sortSchedule(channelId, false));
             }
             if(sortType == 2)
             {
-                Main.getScheduleManager().sortSchedule(channelId, true);
+                Main.getScheduleManager().getSerializer()
+                        .execute(channelId, () -> Main.getScheduleManager().sortSchedule(channelId, true));
+            }
+        }
+    }
+
+    /**
+     * Handles automatic sorting of a channel after a single event was created or changed,
+     * only the event (and the events it passes) are moved. The sort is queued behind the schedule's other operations
+     * @param sort (boolean) should the channel be sorted?
+     * @param channelId (String) ID of the channel to sort
+     * @param entryId (Integer) ID of the event which was created or changed
+     */
+    public static void autoSort(boolean sort, String channelId, Integer entryId)
+    {
+        if(sort)
+        {
+            int sortType = Main.getScheduleManager().getAutoSort(channelId);
+            if(sortType == 1)
+            {
+                Main.getScheduleManager().getSerializer()
+                        .execute(channelId, () -> Main.getScheduleManager().sortEntry(channelId, false, entryId));
+            }
+            if(sortType == 2)
+            {
+                Main.getScheduleManager().getSerializer()
+                        .execute(channelId, () -> Main.getScheduleManager().sortEntry(channelId, true, entryId));
             }
         }
     }
@@ -367,39 +769,176 @@ public class EntryManager
     {
         DeleteResult res = Main.getDBDriver().getEventCollection()
                 .deleteMany(eq("_id", entryId));
+        this.timeline.remove(entryId);
+        this.messageIndex.remove(entryId);
         return res.wasAcknowledged();
     }
 
     /**
-     * regenerates the displayed Message text for a schedule entry
+     * regenerates the displayed Message text for a schedule entry (once the refresh window ends)
      * @param eId integer Id
      */
     public void reloadEntry(Integer eId)
     {
-        ScheduleEntry se = getEntry(eId);
-        if(se == null) return;
-        se.reloadDisplay();
+        this.refresher.request(eId);
     }
 
     /**
-     * generates a new ID randomly from a 32bit space
-     * @return (Integer) new, unused id
+     * generates a random ID from the positive 31bit space, the ID is not checked against existing events;
+     * a collision is caught by the unique '_id' index on insert (see insertEntry)
+     * @return (Integer) new id
      */
-    private Integer newId()
+    private synchronized Integer newId()
     {
-        // try first to use the requested Id
-        Integer ID;
-        ID = this.generator.nextInt(Integer.MAX_VALUE);
+        return this.generator.nextInt(Integer.MAX_VALUE);
+    }
 
-        // if the Id is in use, generate a new one until a free one is found
-        Bson document = Main.getDBDriver().getEventCollection().find(eq("_id", ID)).first();
-        while (document != null)
+    /**
+     * inserts a new event document, should the event's ID be taken the event is given a new ID and it's message
+     * is updated to display the new ID. If the event cannot be inserted it's message is deleted
+     * @param se the new event
+     * @param entryDocument the event's document
+     * @param message the event's message
+     */
+    private void insertEntry(ScheduleEntry se, Document entryDocument, Message message)
+    {
+        try
         {
-            ID = this.generator.nextInt();
-            document = Main.getDBDriver().getEventCollection().find(eq("_id", ID)).first();
+            for (int attempt = 1; ; attempt++)
+            {
+                try
+                {
+                    Main.getDBDriver().getEventCollection().insertOne(entryDocument);
+                    if (attempt > 1)
+                    {   // show the ID the event was given
+                        MessageUtilities.editMsg(MessageGenerator.generate(se), message, null);
+                    }
+                    return;
+                }
+                catch (MongoWriteException e)
+                {
+                    if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY ||
+                            attempt >= MAX_INSERT_ATTEMPTS) throw e;
+
+                    Logging.warn(this.getClass(), "Event ID "+se.getId()+" was taken, assigning a new ID.");
+                    se.setId(this.newId());
+                    entryDocument.put("_id", se.getId());
+                }
+            }
         }
+        catch (RuntimeException e)
+        {   // do not leave a message without an event behind
+            MessageUtilities.deleteMsg(message, null);
+            throw e;
+        }
+    }
+
+    /**
+     * determines if an event message already shows a rendered display
+     * @param messageId ID of the event message
+     * @param display the newly rendered display
+     * @return true if the display was the last one successfully sent to the message
+     */
+    boolean isDisplayCurrent(String messageId, Message display)
+    {
+        String hash = this.displayCache.getIfPresent(messageId);
+        return hash != null && hash.equals(hashDisplay(display));
+    }
+
+    /**
+     * records the display which was successfully sent to an event message
+     * @param messageId ID of the event message
+     * @param display the display sent to the message
+     */
+    void displayUpdated(String messageId, Message display)
+    {
+        this.displayCache.put(messageId, hashDisplay(display));
+    }
+
+    /**
+     * helper to isDisplayCurrent() and displayUpdated(), digests the visible content of a message (SHA-256)
+     * so that differing displays are not mistaken for one another
+     */
+    private static String hashDisplay(Message display)
+    {
+        StringBuilder content = new StringBuilder(display.getContentRaw());
+        for (MessageEmbed embed : display.getEmbeds())
+        {
+            content.append('\0').append(embed.toJSONObject().toString());
+        }
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(content.toString().getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        }
+        catch (NoSuchAlgorithmException e)
+        {   // every JVM provides SHA-256, fall back to comparing the content itself
+            return content.toString();
+        }
+    }
 
-        return ID;
+    /**
+     * loads the messages of all events of a shard's guilds into the message index,
+     * until loaded all messages of the shard are treated as possible event messages
+     * @param shardId ID of the shard
+     * @param guildIds IDs of the shard's guilds
+     */
+    public void loadMessageIndex(int shardId, Collection<String> guildIds)
+    {
+        Main.getDBDriver().getEventCollection()
+                .find(in("guildId", guildIds))
+                .projection(fields(include("_id", "messageId")))
+                .forEach((Consumer<? super Document>) document ->
+                        this.messageIndex.put(document.getInteger("_id"), document.getString("messageId")));
+        this.messageIndex.setLoaded(shardId);
+    }
+
+    /**
+     * checks the message index to determine if a message may be displaying an event
+     * @param shardId ID of the shard which received the message
+     * @param messageId ID of the message
+     * @return false if the message is known not to be an event message
+     */
+    public boolean isEventMessage(int shardId, String messageId)
+    {
+        return this.messageIndex.mayBeEventMessage(shardId, messageId);
+    }
+
+    /**
+     * retrieves the index of event messages
+     * @return the MessageIndex
+     */
+    MessageIndex getMessageIndex()
+    {
+        return this.messageIndex;
+    }
+
+    /**
+     * retrieves the coordinator of event display refreshes
+     * @return the RefreshCoordinator
+     */
+    public RefreshCoordinator getRefreshCoordinator()
+    {
+        return this.refresher;
+    }
+
+    /**
+     * retrieves the executor of event actions and timer refreshes
+     * @return the ActionExecutor
+     */
+    public ActionExecutor getActionExecutor()
+    {
+        return this.actionExecutor;
+    }
+
+    /**
+     * retrieves the index of upcoming event actions
+     * @return the EntryTimeline
+     */
+    EntryTimeline getTimeline()
+    {
+        return this.timeline;
     }
 
     /**
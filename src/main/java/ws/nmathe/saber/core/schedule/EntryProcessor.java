@@ -1,45 +1,54 @@
 package ws.nmathe.saber.core.schedule;
 
 import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.exceptions.PermissionException;
 import org.bson.Document;
+import com.mongodb.client.result.UpdateResult;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.HealthMonitor;
+import ws.nmathe.saber.core.ShardManager;
+import ws.nmathe.saber.core.database.LeaseManager;
+import ws.nmathe.saber.core.metrics.Histogram;
 import ws.nmathe.saber.utils.Logging;
 import ws.nmathe.saber.utils.MessageUtilities;
 
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.Collections;
-import java.util.Date;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.*;
 
 /**
- * Used by the Main scheduler timer, a new thread is executed every minute/5minutes/1hour/1day.
- * processes all entries referenced in the collection passed in, checking the start/end time and updating the
- * "time until" display timers.
- * a thread is spawned for each event operation to avoid one problematic event hanging-up the class
+ * Used by the Main scheduler timer, a new thread is executed every 5minutes/15minutes/6hours.
+ * loads events with an upcoming 'next_fire' into the EntryTimeline (which triggers the start/end/reminder processing
+ * when an action comes due) and updates the "time until" display timers.
+ * event operations run on the ActionExecutor to avoid one problematic event hanging-up the class
  */
 class EntryProcessor implements Runnable
 {
-    // thread pool used to reload displays of events
-    private static ExecutorService timerExecutor = Executors.newCachedThreadPool();
+    enum ActionType {END, START, REMIND, SPECIAL}
+    private EntryManager.type type;
 
-    // thread pool used to process event announcements
-    private static ExecutorService setExecutor = Executors.newFixedThreadPool(10);
+    // how far ahead of time event actions are loaded into the timeline
+    static final long LOOKAHEAD = 10;   // minutes
 
-    private enum ActionType {END, START, REMIND, SPECIAL}
-    private EntryManager.type type;
+    // backoff of failed event actions
+    private static final long RETRY_BASE = 30;      // seconds before the first retry, doubled for each retry
+    private static final long RETRY_MAX  = 1800;    // maximum seconds between retries
 
-    // simple mechanism to avoid conflicting database updates
-    // (ie. simultaneous remind() and announce() update)
-    private static Set<Integer> processing = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    // milliseconds before the action of an event on a disconnected shard is tried again
+    private static final long DISCONNECTED_RETRY = 10000;
+
+    // when the events currently being processed by this instance began processing,
+    // concurrent processing of an event is prevented by the event's lease and versioned updates
     private static Map<Integer, Date> timestamps = new ConcurrentHashMap<>();
 
     /** construct the entry processor with type */
@@ -58,42 +67,24 @@ class EntryProcessor implements Runnable
              */
             if(type == EntryManager.type.PROCESS)
             {
-                Logging.info(this.getClass(), "Processing entries. . .");
-                Bson query;
-
-                /*
-                 * process any event-specific announcements
-                 */
-                query = lte("announcements", new Date());
-                processEvents(ActionType.SPECIAL, query);
-
-                /*
-                 * process events to end
-                 */
-                query = and(eq("hasStarted",true), lte("end", new Date()));
-                processEvents(ActionType.END, query);
-
-                /*
-                 * process events to start
-                 */
-                query = and(eq("hasStarted",false), lte("start", new Date()));
-                processEvents(ActionType.START, query);
-
-                /*
-                 * process events with reminders
-                 */
-                query = and(
-                            and(eq("hasStarted",false), lte("reminders", new Date())),
-                            gte("start", new Date()));
-                query = or(query,
-                            and(
-                                and(eq("hasStarted",true), lte("end_reminders", new Date())),
-                                gte("end", new Date())));
-                processEvents(ActionType.REMIND, query);
+                Logging.info(this.getClass(), "Loading upcoming entries. . .");
 
-                Logging.info(this.getClass(), "Currently processing "+processing.size()+" events.");
+                // advance the timeline's horizon before querying,
+                // events written after this point are indexed by the EntryManager
+                Date horizon = Date.from(Instant.now().plus(LOOKAHEAD, ChronoUnit.MINUTES));
+                EntryTimeline timeline = Main.getEntryManager().getTimeline();
+                timeline.setHorizon(horizon);
 
-                // exit the bot if any event takes more than a few minutes to process
+                // load all events with an action due before the horizon (including overdue actions)
+                queryTimer("load").time(() -> Main.getDBDriver().getEventCollection()
+                        .find(and(ShardManager.getShardFilter(), lte("next_fire", horizon)))
+                        .projection(fields(include("_id", "next_fire")))
+                        .forEach((Consumer<? super Document>) timeline::load));
+
+                Logging.info(this.getClass(), "Currently processing "+timestamps.size()+" events.");
+
+                // report degraded health if events take more than a few minutes to process,
+                // actions which run past their deadline are interrupted and retried by the ActionExecutor
                 int timeThreshold  = 3;
                 int countThreshold = 30;
                 int count = 0;
@@ -102,11 +93,23 @@ class EntryProcessor implements Runnable
                     boolean flagged = value.before(Date.from(Instant.now().minus(timeThreshold, ChronoUnit.MINUTES)));
                     if (flagged) count += 1;
                 }
-                if (count > countThreshold)
+                ActionExecutor executor = Main.getEntryManager().getActionExecutor();
+                int overdue = executor.getOverdue();
+                if (overdue >= ActionExecutor.THREADS)
+                {
+                    Main.getHealthMonitor().report("events", HealthMonitor.Status.UNHEALTHY,
+                            "all "+overdue+" action threads are stuck past their deadline");
+                }
+                else if (count > countThreshold || overdue > 0)
+                {
+                    Main.getHealthMonitor().report("events", HealthMonitor.Status.DEGRADED,
+                            count+" events have been in processing for over "+timeThreshold+" minutes, "+
+                            overdue+" action threads are stuck past their deadline");
+                }
+                else
                 {
-                    String txt = "[EXIT] There are "+count+" events that have been in processing for over "+timeThreshold+".";
-                    Logging.warn(this.getClass(), txt);
-                    System.exit(-100);
+                    Main.getHealthMonitor().report("events", HealthMonitor.Status.HEALTHY,
+                            timestamps.size()+" events in processing, "+executor.getQueueDepth()+" queued");
                 }
             }
 
@@ -145,14 +148,19 @@ class EntryProcessor implements Runnable
                     query = lte("expire", Date.from(ZonedDateTime.now().plusDays(1).toInstant()));
 
                     //delete message objects
-                    Main.getDBDriver().getEventCollection().find(query)
+                    Bson expired = and(ShardManager.getShardFilter(), query);
+                    queryTimer("expired").time(() -> Main.getDBDriver().getEventCollection().find(expired)
                             .forEach((Consumer<? super Document>) document ->
                     {
-                        MessageUtilities.deleteMsg((new ScheduleEntry(document)).getMessageObject(), null);
-                    });
+                        TextChannel channel = (new ScheduleEntry(document)).getChannel();
+                        if (channel != null)
+                        {
+                            MessageUtilities.deleteMsgById(channel, document.getString("messageId"), null);
+                        }
+                    }));
 
                     // bulk delete entries from the database
-                    Main.getDBDriver().getEventCollection().deleteMany(query);
+                    queryTimer("delete_expired").time(() -> Main.getDBDriver().getEventCollection().deleteMany(expired));
 
                     // adjust timers
                     query = or(and(
@@ -181,8 +189,10 @@ class EntryProcessor implements Runnable
 
                 }
 
-                // reload entries based on the appropriate query
-                Main.getDBDriver().getEventCollection().find(query)
+                // reload entries based on the appropriate query, limited to the shards of this instance
+                Bson timers = and(ShardManager.getShardFilter(), query);
+                queryTimer("timers_"+type.name().toLowerCase()).time(() -> Main.getDBDriver().getEventCollection()
+                        .find(timers)
                         .forEach((Consumer<? super Document>) document ->
                         {
                             // identify which shard is responsible for the schedule
@@ -193,21 +203,9 @@ class EntryProcessor implements Runnable
                             if (jda == null) return;
                             if (!jda.getStatus().equals(JDA.Status.CONNECTED)) return;
 
-                            timerExecutor.execute(() ->
-                            {
-                                try
-                                {   // convert to scheduleEntry object and update display
-                                    (new ScheduleEntry(document)).reloadDisplay();
-                                }
-                                catch (PermissionException ignored)
-                                {/* dont care */}
-                                catch(Exception e)
-                                {
-                                    Logging.warn(this.getClass(), "Error occurred while updating event timer.");
-                                    Logging.exception(this.getClass(), e);
-                                }
-                            });
-                        });
+                            // timer refreshes are cosmetic, they wait while the bot is busy with event actions
+                            Main.getEntryManager().getRefreshCoordinator().requestTimer(document);
+                        }));
 
                 Logging.info(this.getClass(), "Finished updating timers. . .");
             }
@@ -219,30 +217,95 @@ class EntryProcessor implements Runnable
     }
 
     /**
-     * fills a ActionType given a proper query, helper function to run()
-     * @param action which ActionType to ActionType the event for
+     * processes the next action of events which the timeline found to be due
+     * @param entryIds IDs of the events
+     */
+    static void processDue(Set<Integer> entryIds)
+    {
+        // the 'next_fire' condition ensures the action is still due for the event
+        processEvents(and(in("_id", entryIds), lte("next_fire", new Date()), ShardManager.getShardFilter()));
+    }
+
+    /**
+     * schedules a failed action to be tried again with exponential backoff, the number of retries is stored on the
+     * event and is reset when the event is next written. The action is only retried if it failed before the event's
+     * next action was advanced, an action which failed afterwards (ie. while sending the announcement) is not repeated
+     * @param document the event document the action was processed from
+     */
+    private static void retry(Document document)
+    {
+        try
+        {
+            Integer id = document.getInteger("_id");
+            int retries = document.getInteger("retries", 0);
+            long delay = Math.min(RETRY_BASE << Math.min(retries, 16), RETRY_MAX);   // seconds
+
+            UpdateResult res = queryTimer("retry").time(() -> Main.getDBDriver().getEventCollection()
+                    .updateOne(and(eq("_id", id), eq("next_fire", document.getDate("next_fire"))),
+                            combine(set("next_fire", Date.from(Instant.now().plusSeconds(delay))),
+                                    inc("retries", 1))));
+            if (res.getModifiedCount() > 0)
+            {
+                Main.getEntryManager().getTimeline().defer(id, delay*1000);
+                Logging.info(EntryProcessor.class, "Retrying the action of event ["+id+"] in "+delay+" seconds.");
+            }
+        }
+        catch (Exception e)
+        {
+            Logging.exception(EntryProcessor.class, e);
+        }
+    }
+
+    /**
+     * processes the action named by the 'next_action' field of each event matching a query
      * @param query the database query to use
      */
-    private void processEvents(ActionType action, Bson query)
+    private static void processEvents(Bson query)
     {
-        Main.getDBDriver().getEventCollection().find(query)
+        queryTimer("due").time(() -> Main.getDBDriver().getEventCollection().find(query)
+                .projection(fields(include("_id", "guildId", "next_action")))
                 .forEach((Consumer<? super Document>) document ->
                 {
                     // identify which shard is responsible for the schedule
                     String guildId = document.getString("guildId");
                     JDA jda = Main.getShardManager().getJDA(guildId);
+                    Integer id = document.getInteger("_id");
 
-                    // if the shard is not connected, do process the event
-                    if(jda == null) return;
-                    if (!jda.getStatus().equals(JDA.Status.CONNECTED)) return;
+                    // if the shard is not connected, try again once it may have reconnected
+                    if (jda == null || !jda.getStatus().equals(JDA.Status.CONNECTED))
+                    {
+                        Main.getEntryManager().getTimeline().defer(id, DISCONNECTED_RETRY);
+                        return;
+                    }
 
-                    ScheduleEntry se = (new ScheduleEntry(document));
-                    Integer id = se.getId();
-                    if (processing.add(id))
+                    // start and end announcements run before reminders and announcement overrides
+                    String queued = document.getString("next_action");
+                    ActionExecutor.Priority priority =
+                            (ActionType.START.name().equals(queued) || ActionType.END.name().equals(queued)) ?
+                                    ActionExecutor.Priority.ANNOUNCE : ActionExecutor.Priority.NOTIFY;
+                    boolean accepted = Main.getEntryManager().getActionExecutor().execute(priority, guildId, () ->
                     {
-                        timestamps.put(id, new Date());
-                        setExecutor.submit(() ->
+                        Date began = new Date();
+                        // claim the event so that no other instance of the bot processes it at the same time,
+                        // the query ensures the action is still due once claimed
+                        try (LeaseManager.Lease lease = queryTimer("claim").time(() -> Main.getLeaseManager()
+                                .claim(Main.getDBDriver().getEventCollection(), id, query)))
                         {
+                            if (lease == null)
+                            {   // retry shortly if this instance is still processing a previous action,
+                                // otherwise the lease may be held by an instance which died, retry once it expires
+                                long delay = timestamps.containsKey(id) ? 1000 : LeaseManager.LEASE_DURATION*1000;
+                                Main.getEntryManager().getTimeline().defer(id, delay);
+                                return;
+                            }
+                            timestamps.put(id, began);
+
+                            // the action to take on the event
+                            String next = lease.getDocument().getString("next_action");
+                            if (next == null) return;
+                            ActionType action = ActionType.valueOf(next);
+
+                            ScheduleEntry se = new ScheduleEntry(lease.getDocument());
                             try
                             {
                                 switch(action)
@@ -263,21 +326,48 @@ class EntryProcessor implements Runnable
                             }
                             catch (PermissionException e)
                             {
-                                Logging.warn(this.getClass(),
+                                Logging.warn(EntryProcessor.class,
                                         "Permission error on '"+se.getTitle()+"' ["+se.getId()+"]: "+e.getMessage());
                             }
                             catch (Exception e)
-                            {
-                                Logging.warn(this.getClass(), "Error occurred when processing event action!");
-                                Logging.exception(this.getClass(), e);
-                            }
-                            finally
-                            {
-                                timestamps.remove(id);
-                                processing.remove(id);
+                            {   // the action failed, ran past its deadline, or lost its lease and was interrupted
+                                Logging.warn(EntryProcessor.class, "Failed to process "+action+" of '"+
+                                        se.getTitle()+"' ["+se.getId()+"]: "+e.getMessage());
+                                if (!lease.isLost()) retry(lease.getDocument());
                             }
-                        });
+                        }
+                        catch (Exception e)
+                        {
+                            Logging.warn(EntryProcessor.class, "Error occurred when processing event action!");
+                            Logging.exception(EntryProcessor.class, e);
+                        }
+                        finally
+                        {
+                            timestamps.remove(id, began);
+                        }
+                    });
+                    if (!accepted)
+                    {   // the executor is overloaded, try again shortly
+                        Main.getEntryManager().getTimeline().defer(id, 5000);
                     }
-                });
+                }));
+    }
+
+    /**
+     * @return the number of events currently being processed by this instance
+     */
+    static int getProcessingCount()
+    {
+        return timestamps.size();
+    }
+
+    /**
+     * @param query name of the query
+     * @return the histogram of the time taken by a query, including reading its results
+     */
+    private static Histogram queryTimer(String query)
+    {
+        return Main.getMetrics().histogram("saber_entry_processor_query_milliseconds",
+                "Time taken by the queries of the event processor, including reading their results", "query", query);
     }
 }
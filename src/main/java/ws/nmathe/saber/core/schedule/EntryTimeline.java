@@ -0,0 +1,194 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.Document;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory, time ordered index of the next pending action (start, end, reminder, or announcement override)
+ * of events. A single thread sleeps until the earliest indexed action is due and then hands the due events
+ * to the EntryProcessor, which dispatches the action named by the event's 'next_action' field.
+ * Only actions due before the horizon are indexed; the EntryProcessor periodically advances the horizon and
+ * loads the events whose 'next_fire' is within the look-ahead window. Changes made to events in between are
+ * indexed by the EntryManager as they are written.
+ */
+class EntryTimeline
+{
+    // thread which waits for the next action to come due
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("EntryTimeline-%d").build());
+
+    private final TreeSet<Action> timeline = new TreeSet<>();       // all indexed actions ordered by time
+    private final Map<Integer, Action> entries = new HashMap<>();   // event ID to the event's indexed action
+
+    private long horizon = 0;                   // actions due after this time (epoch ms) are not indexed
+    private ScheduledFuture<?> wakeup = null;   // the scheduled wakeup of the timeline thread
+    private long wakeupTime = Long.MAX_VALUE;   // when the timeline thread is scheduled to wake
+
+    /**
+     * the next action of an event which is due at a certain time
+     */
+    private static class Action implements Comparable<Action>
+    {
+        final long time;
+        final Integer entryId;
+
+        Action(long time, Integer entryId)
+        {
+            this.time = time;
+            this.entryId = entryId;
+        }
+
+        @Override
+        public int compareTo(Action other)
+        {
+            int cmp = Long.compare(this.time, other.time);
+            if (cmp != 0) return cmp;
+            return Integer.compare(this.entryId, other.entryId);
+        }
+    }
+
+    /**
+     * moves the horizon of the timeline forward,
+     * the caller is responsible for loading the events with actions due before the new horizon
+     * @param horizon actions due after this date will not be indexed
+     */
+    synchronized void setHorizon(Date horizon)
+    {
+        this.horizon = Math.max(this.horizon, horizon.getTime());
+    }
+
+    /**
+     * (re)indexes the next action of an event from the event's schedule entry object
+     * @param se the event
+     */
+    void index(ScheduleEntry se)
+    {
+        Map.Entry<Date, EntryProcessor.ActionType> next = se.getNextAction();
+        this.index(se.getId(), next == null ? null : next.getKey());
+    }
+
+    /**
+     * (re)indexes the next action of an event from the event's database document
+     * @param document the event document, must contain the '_id' and 'next_fire' fields
+     */
+    void load(Document document)
+    {
+        this.index(document.getInteger("_id"), document.getDate("next_fire"));
+    }
+
+    /**
+     * removes the indexed action of an event
+     * @param entryId ID of the event
+     */
+    synchronized void remove(Integer entryId)
+    {
+        Action action = this.entries.remove(entryId);
+        if (action != null)
+        {
+            this.timeline.remove(action);
+        }
+    }
+
+    /**
+     * indexes the action of an event which could not be processed yet
+     * @param entryId ID of the event
+     * @param delay milliseconds to wait before the action is tried again
+     */
+    synchronized void defer(Integer entryId, long delay)
+    {
+        this.remove(entryId);
+        Action action = new Action(System.currentTimeMillis() + delay, entryId);
+        this.entries.put(entryId, action);
+        this.timeline.add(action);
+        this.reschedule();
+    }
+
+    /**
+     * @return the number of indexed actions
+     */
+    synchronized int size()
+    {
+        return this.timeline.size();
+    }
+
+    /**
+     * @return the number of indexed actions which are due but have not yet been handed to the EntryProcessor
+     */
+    synchronized int countDue()
+    {
+        return this.timeline.headSet(new Action(System.currentTimeMillis(), Integer.MAX_VALUE), true).size();
+    }
+
+    /**
+     * replaces the indexed action of an event, the action is only indexed if due before the horizon
+     * @param entryId ID of the event
+     * @param nextFire when the event's next action is due, null if the event has no pending action
+     */
+    private synchronized void index(Integer entryId, Date nextFire)
+    {
+        this.remove(entryId);
+        if (nextFire != null && nextFire.getTime() <= this.horizon)
+        {
+            Action action = new Action(nextFire.getTime(), entryId);
+            this.entries.put(entryId, action);
+            this.timeline.add(action);
+            this.reschedule();
+        }
+    }
+
+    /**
+     * ensures the timeline thread wakes no later than when the earliest indexed action is due
+     */
+    private synchronized void reschedule()
+    {
+        if (this.timeline.isEmpty()) return;
+
+        long next = this.timeline.first().time;
+        if (this.wakeup == null || this.wakeup.isDone() || next < this.wakeupTime)
+        {
+            if (this.wakeup != null) this.wakeup.cancel(false);
+            long delay = Math.max(0, next - System.currentTimeMillis());
+            this.wakeupTime = next;
+            this.wakeup = this.scheduler.schedule(this::processDue, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * removes all actions which are due from the timeline and hands the events to the EntryProcessor
+     */
+    private void processDue()
+    {
+        Set<Integer> due = new HashSet<>();
+        synchronized (this)
+        {
+            long now = System.currentTimeMillis();
+            while (!this.timeline.isEmpty() && this.timeline.first().time <= now)
+            {
+                Action action = this.timeline.pollFirst();
+                this.entries.remove(action.entryId);
+                due.add(action.entryId);
+            }
+            this.wakeup = null;
+        }
+
+        try
+        {
+            if (!due.isEmpty()) EntryProcessor.processDue(due);
+        }
+        catch (Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+        finally
+        {
+            this.reschedule();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ws.nmathe.saber.core.schedule;
+
+import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact in-memory index of the messages which display events, keyed by the message's snowflake ID.
+ * Used to reject reactions and deletes on messages which are not event messages without querying the database.
+ * The index of a shard is only trusted once the shard's events have been loaded, until then every message
+ * is treated as a possible event message.
+ */
+class MessageIndex
+{
+    private final TLongIntHashMap messages = new TLongIntHashMap();    // message ID to event ID
+    private final TIntLongHashMap events = new TIntLongHashMap();      // event ID to message ID
+    private final Set<Integer> loadedShards = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * adds (or moves) the message of an event
+     * @param entryId ID of the event
+     * @param messageId ID of the event's message
+     */
+    synchronized void put(Integer entryId, String messageId)
+    {
+        if (entryId == null || messageId == null) return;
+
+        long msgId = Long.parseLong(messageId);
+        if (this.events.containsKey(entryId))
+        {   // the event's previous message is no longer an event message
+            long previous = this.events.get(entryId);
+            if (this.messages.get(previous) == entryId) this.messages.remove(previous);
+        }
+        this.messages.put(msgId, entryId);
+        this.events.put(entryId, msgId);
+    }
+
+    /**
+     * removes the message of an event
+     * @param entryId ID of the event
+     */
+    synchronized void remove(Integer entryId)
+    {
+        if (entryId == null || !this.events.containsKey(entryId)) return;
+
+        long msgId = this.events.remove(entryId);
+        if (this.messages.get(msgId) == entryId) this.messages.remove(msgId);
+    }
+
+    /**
+     * marks the events of a shard as loaded, the index is used for the shard's messages from then on
+     * @param shardId ID of the shard
+     */
+    void setLoaded(int shardId)
+    {
+        this.loadedShards.add(shardId);
+    }
+
+    /**
+     * @param shardId ID of the shard which received the message
+     * @param messageId ID of the message
+     * @return false if the message is known not to be an event message
+     */
+    synchronized boolean mayBeEventMessage(int shardId, String messageId)
+    {
+        return !this.loadedShards.contains(shardId) || this.messages.containsKey(Long.parseLong(messageId));
+    }
+}
@@ -0,0 +1,238 @@
+package ws.nmathe.saber.core.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.Document;
+import ws.nmathe.saber.Main;
+import ws.nmathe.saber.utils.Logging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.in;
+
+/**
+ * Collapses the display refreshes requested for an event within a short window (configured by 'refresh_window'
+ * in the bot settings) into a single render and edit of the event's message.
+ * Events are rendered from their state at the end of the window, which is read from the database unless the only
+ * request for the event came with the event's current document.
+ * Timer refreshes are handed to the ActionExecutor so that they never delay event actions, they are queued in the
+ * order requested and handed over only as fast as the executor accepts them.
+ */
+public class RefreshCoordinator
+{
+    private static final Object RELOAD = new Object();  // marks an event which must be read before rendering
+    private static final int BATCH_SIZE = 500;          // maximum number of events read by a single query
+    private static final long TIMER_RETRY = 1000;       // ms before refused timer refreshes are offered again
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("DisplayRefresh-%d").build());
+
+    // event ID to the event's document, or RELOAD
+    private final Map<Integer, Object> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    // event ID to the event's document, pending timer refreshes in the order requested
+    private final LinkedHashMap<Integer, Document> timers = new LinkedHashMap<>();  // guarded by itself
+
+    // metrics
+    private final AtomicLong requested = new AtomicLong(0);
+    private final AtomicLong rendered = new AtomicLong(0);
+
+    /**
+     * requests the display of an event be refreshed
+     * @param entryId ID of the event
+     */
+    public void request(Integer entryId)
+    {
+        this.requested.incrementAndGet();
+        this.pending.put(entryId, RELOAD);
+        this.removeTimer(entryId);
+        this.schedule();
+    }
+
+    /**
+     * requests the displays of events be refreshed
+     * @param entryIds IDs of the events
+     */
+    public void requestAll(Collection<Integer> entryIds)
+    {
+        for (Integer entryId : entryIds)
+        {
+            this.request(entryId);
+        }
+    }
+
+    /**
+     * requests the display of an event be refreshed, the event's document is used to render the display
+     * unless another refresh of the event is requested before the refresh happens
+     * @param document the current document of the event
+     */
+    public void requestFrom(Document document)
+    {
+        this.requested.incrementAndGet();
+        this.pending.merge(document.getInteger("_id"), document, (previous, latest) -> RELOAD);
+        this.removeTimer(document.getInteger("_id"));
+        this.schedule();
+    }
+
+    /**
+     * requests a cosmetic refresh of an event's display (the time until the event starts or ends),
+     * the refresh is run by the ActionExecutor at the lowest priority and waits while the executor is busy.
+     * A refresh of the event requested for any other reason takes precedence
+     * @param document the current document of the event
+     */
+    public void requestTimer(Document document)
+    {
+        this.requested.incrementAndGet();
+        Integer entryId = document.getInteger("_id");
+        if (this.pending.containsKey(entryId)) return;
+        synchronized (this.timers)
+        {
+            this.timers.put(entryId, document);
+        }
+        this.schedule();
+    }
+
+    /**
+     * @return the number of timer refreshes waiting for the executor
+     */
+    public int getPendingTimers()
+    {
+        synchronized (this.timers)
+        {
+            return this.timers.size();
+        }
+    }
+
+    /**
+     * @return the number of refreshes requested
+     */
+    public long getRequested()
+    {
+        return this.requested.get();
+    }
+
+    /**
+     * @return the number of displays rendered
+     */
+    public long getRendered()
+    {
+        return this.rendered.get();
+    }
+
+    /**
+     * @return the number of message edits saved by collapsing requests
+     */
+    public long getSaved()
+    {
+        return Math.max(0, this.requested.get() - this.rendered.get() - this.pending.size() - this.getPendingTimers());
+    }
+
+    /**
+     * schedules the pending refreshes to happen once the window ends
+     */
+    private void schedule()
+    {
+        this.schedule(Math.max(0, Main.getBotSettingsManager().getRefreshWindow()));
+    }
+
+    private void schedule(long delay)
+    {
+        if (this.scheduled.compareAndSet(false, true))
+        {
+            this.scheduler.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void removeTimer(Integer entryId)
+    {
+        synchronized (this.timers)
+        {
+            this.timers.remove(entryId);
+        }
+    }
+
+    /**
+     * renders the displays of all events with a pending refresh
+     */
+    private void flush()
+    {
+        this.scheduled.set(false);
+
+        List<Integer> reload = new ArrayList<>();
+        for (Integer entryId : this.pending.keySet())
+        {
+            Object value = this.pending.remove(entryId);
+            if (value == RELOAD)
+            {
+                reload.add(entryId);
+            }
+            else if (value != null)
+            {
+                this.render((Document) value);
+            }
+        }
+
+        for (int i=0; i<reload.size(); i+=BATCH_SIZE)
+        {
+            try
+            {
+                Main.getDBDriver().getEventCollection()
+                        .find(in("_id", reload.subList(i, Math.min(i+BATCH_SIZE, reload.size()))))
+                        .forEach((Consumer<? super Document>) this::render);
+            }
+            catch (Exception e)
+            {
+                Logging.exception(this.getClass(), e);
+            }
+        }
+
+        // hand over timer refreshes, oldest first, until the executor refuses more work;
+        // the remainder is offered again shortly
+        synchronized (this.timers)
+        {
+            Iterator<Map.Entry<Integer, Document>> iterator = this.timers.entrySet().iterator();
+            while (iterator.hasNext())
+            {
+                Document document = iterator.next().getValue();
+                boolean accepted = Main.getEntryManager().getActionExecutor()
+                        .execute(ActionExecutor.Priority.TIMER, document.getString("guildId"),
+                                () -> this.render(document));
+                if (!accepted) break;
+                iterator.remove();
+            }
+            if (!this.timers.isEmpty())
+            {
+                this.schedule(TIMER_RETRY);
+            }
+        }
+    }
+
+    /**
+     * helper to flush(), renders and edits the display of an event
+     */
+    private void render(Document document)
+    {
+        this.rendered.incrementAndGet();
+        try
+        {
+            new ScheduleEntry(document).renderDisplay();
+        }
+        catch (Exception e)
+        {
+            Logging.warn(this.getClass(), "Failed to refresh the display of event " + document.get("_id") + ": " +
+                    e.getMessage());
+        }
+    }
+}
@@ -35,6 +35,10 @@ public class ScheduleEntry
     private String guildId;
     private String googleId;
 
+    // versioning
+    private int version;                     // the version of the event document the entry was loaded from
+    private Document snapshot;               // copy of the event document the entry was loaded from
+
     // entry parameters
     private String title;                    // the title/name of the event
     private ZonedDateTime start;             // the time when the event starts
@@ -93,6 +97,10 @@ public class ScheduleEntry
         this.chanId  = channel.getId();
         this.guildId = channel.getGuild().getId();
 
+        // versioning
+        this.version  = 0;
+        this.snapshot = null;
+
         // entry parameters
         this.title       = title;
         this.start       = start;
@@ -145,6 +153,10 @@ public class ScheduleEntry
         this.guildId  = (String) entryDocument.get("guildId");
         this.googleId = (String) entryDocument.get("googleId");
 
+        // versioning, the document's lists and maps are shared with (and mutated through) the entry
+        this.version  = entryDocument.getInteger("version", 0);
+        this.snapshot = (Document) copyOf(entryDocument);
+
         // entry zone information
         ZoneId zone = Main.getScheduleManager().getTimeZone(this.chanId);
 
@@ -227,19 +239,66 @@ public class ScheduleEntry
     }
 
 
-    public void announce()
+    /**
+     * records how long after its scheduled time an action of the event was processed,
+     * and counts the announcement if it was dropped for being late
+     * @param action name of the action
+     * @param scheduled the time the action was scheduled for
+     * @param dropped whether the announcement was dropped
+     */
+    private static void recordLateness(String action, Instant scheduled, boolean dropped)
     {
-        Message message = this.getMessageObject();
-        if (message == null) return;
-        this.announce(message);
+        Main.getMetrics().histogram("saber_event_action_lateness_milliseconds",
+                "Time between when an event action was scheduled and when it was processed", "action", action)
+                .record(Duration.between(scheduled, Instant.now()).toMillis());
+        if (dropped)
+        {
+            Main.getMetrics().counter("saber_late_announcements_dropped_total",
+                    "Announcements not sent because the action was processed past the late threshold",
+                    "action", action).increment();
+        }
     }
 
+    /**
+     * deep copies the lists and maps of a document
+     * @param value document, list, map, or immutable value
+     * @return the copy
+     */
+    @SuppressWarnings("unchecked")
+    private static Object copyOf(Object value)
+    {
+        if (value instanceof Document)
+        {
+            Document copy = new Document();
+            ((Document) value).forEach((key, field) -> copy.put(key, copyOf(field)));
+            return copy;
+        }
+        if (value instanceof Map)
+        {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            ((Map<Object, Object>) value).forEach((key, field) -> copy.put(key, copyOf(field)));
+            return copy;
+        }
+        if (value instanceof List)
+        {
+            List<Object> copy = new ArrayList<>();
+            ((List<Object>) value).forEach(element -> copy.add(copyOf(element)));
+            return copy;
+        }
+        if (value instanceof Date)
+        {
+            return new Date(((Date) value).getTime());
+        }
+        return value;
+    }
 
     /**
      * handles sending special announcements
      */
-    public void announce(Message message)
+    public void announce()
     {
+        if (this.getChannel() == null) return;
+
         // find all expired Dates' announcement IDs
         Collection<String> expired = new ArrayList<>();
         for(String ID : this.aTimes.keySet())
@@ -269,13 +328,14 @@ public class ScheduleEntry
         expired.forEach(key->
         {
             Boolean late = dates.get(key).after(Date.from(Instant.now().minus(threshold, ChronoUnit.MINUTES)));
+            recordLateness("special", dates.get(key).toInstant(), !late);
             if (late)
             {
                 String text = ParsingUtilities.processText(this.aMessages.get(key), this, true);
                 String target = this.aTargets.get(key);
 
                 // send announcement
-                this.makeAnnouncement(message, text, target);
+                this.makeAnnouncement(text, target);
                 Logging.event(this.getClass(), "Sent special announcement for event " +
                         this.getTitle() + " [" + this.getId() + "]");
             }
@@ -287,19 +347,13 @@ public class ScheduleEntry
     }
 
 
-    public void remind()
-    {
-        Message message = this.getMessageObject();
-        if (message == null) return;
-        this.remind(message);
-    }
-
-
     /**
      * handles sending reminder notifications
      */
-    public void remind(Message message)
+    public void remind()
     {
+        if (this.getChannel() == null) return;
+
         Date lastDate = null;
         List<Date> dates = Stream.concat(this.reminders.stream(), this.endReminders.stream())
                 .collect(Collectors.toList());
@@ -327,11 +381,12 @@ public class ScheduleEntry
         {
             Integer threshold = Main.getGuildSettingsManager().getGuildSettings(this.getGuildId()).getLateThreshold();
             Boolean late = lastDate.after(Date.from(Instant.now().minus(threshold, ChronoUnit.MINUTES)));
+            recordLateness("remind", lastDate.toInstant(), !late);
             if (late)
             {   // send reminder
                 if (!this.quietRemind)
                 {
-                    this.makeAnnouncement(message, text, identifier);
+                    this.makeAnnouncement(text, identifier);
                     Logging.event(this.getClass(), "Sent reminder for event " + this.getTitle() + " [" + this.getId() + "]");
                 }
                 else
@@ -347,18 +402,13 @@ public class ScheduleEntry
         }
     }
 
-    public void start()
-    {
-        Message message = this.getMessageObject();
-        if (message == null) return;
-        this.start(message);
-    }
-
     /**
      * Handles when an event begins
      */
-    public void start(Message message)
+    public void start()
     {
+        if (this.getChannel() == null) return;
+
         // create start message and grab identifier before modifying entry
         String text = ParsingUtilities.processText(Main.getScheduleManager().getStartAnnounceFormat(this.chanId), this, true);
         String identifier = Main.getScheduleManager().getStartAnnounceChan(this.chanId);
@@ -370,7 +420,7 @@ public class ScheduleEntry
         // do database updates before sending announcement
         if (this.start.isEqual(this.end))
         {   // process event repeat
-            this.repeat(message);
+            this.repeat();
         }
         else // update event to has started
         {    // try to update db
@@ -379,12 +429,13 @@ public class ScheduleEntry
         }
 
         // dont send start announcements if 15 minutes late
+        recordLateness("start", this.start.toInstant(), !late);
         if (late)
         {
             // send start announcement
             if (!this.quietStart)
             {
-                this.makeAnnouncement(message, text, identifier);
+                this.makeAnnouncement(text, identifier);
                 String logStr = "Sent start announcement for event \"" + this.getTitle() + "\" [" + this.entryId + "]";
                 Logging.event(this.getClass(), logStr);
             }
@@ -401,19 +452,13 @@ public class ScheduleEntry
     }
 
 
-    public void end()
-    {
-        Message message = this.getMessageObject();
-        if (message == null) return;
-        this.end(message);
-    }
-
-
     /**
      * handles when an event ends
      */
-    public void end(Message message)
+    public void end()
     {
+        if (this.getChannel() == null) return;
+
         // create the announcement message before modifying event
         String text = ParsingUtilities.processText(Main.getScheduleManager()
                 .getEndAnnounceFormat(this.chanId), this, true);
@@ -424,14 +469,15 @@ public class ScheduleEntry
         Boolean late = this.end.isAfter(ZonedDateTime.now().minusMinutes(threshold));
 
         // update entry
-        this.repeat(message);
+        this.repeat();
 
         // dont send end announcement if late
+        recordLateness("end", this.end.toInstant(), !late);
         if (late)
         {
             if (!this.quietEnd)
             {
-                this.makeAnnouncement(message, text, identifier);
+                this.makeAnnouncement(text, identifier);
                 String logStr = "Sent ended announcement for event \"" + this.getTitle() + "\" [" + this.entryId + "]";
                 Logging.event(this.getClass(), logStr);
             }
@@ -450,17 +496,13 @@ public class ScheduleEntry
 
     /**
      * Determines what needs to be done to an event when an event ends
+     * @return false if the event's schedule channel no longer exists
      */
     public boolean repeat()
     {
-        Message msg = this.getMessageObject();
-        if (msg == null) return false;
-        this.repeat(msg);
-        return true;
-    }
+        TextChannel channel = this.getChannel();
+        if (channel == null) return false;
 
-    private void repeat(Message message)
-    {
         if (this.recurrence.shouldRepeat(this.start)) // find next repeat date and edit the message
         {
             this.setNextOccurrence();
@@ -471,8 +513,8 @@ public class ScheduleEntry
             if (expire != null && expire.isBefore(this.getStart()))
             {
                 Main.getEntryManager().removeEntry(this.entryId);
-                MessageUtilities.deleteMsg(message, null);
-                return;
+                MessageUtilities.deleteMsgById(channel, this.msgId, null);
+                return true;
             }
 
             // reload time-dependent announcements
@@ -488,9 +530,10 @@ public class ScheduleEntry
         }
         else // otherwise remove entry and delete the message
         {
-            MessageUtilities.deleteMsg(message, null);
+            MessageUtilities.deleteMsgById(channel, this.msgId, null);
             Main.getEntryManager().removeEntry(this.entryId);
         }
+        return true;
     }
 
 
@@ -498,11 +541,18 @@ public class ScheduleEntry
      * processes a channel identifier (either a channel name or snowflake ID) into a valid channel
      * and sends an event announcement
      */
-    private void makeAnnouncement(Message message, String content, String target)
+    private void makeAnnouncement(String content, String target)
     {
+        // another instance may be processing the event if the lease was lost
+        Main.getLeaseManager().checkHeld();
+
         // don't send to any announcement if target is null
         if (target != null)
         {
+            TextChannel schedule = this.getChannel();
+            if (schedule == null) return;
+            Guild guild = schedule.getGuild();
+
             boolean success = false;
 
             // the identifier is an all digits sting,
@@ -511,7 +561,7 @@ public class ScheduleEntry
             {
                 try
                 {
-                    TextChannel channel = message.getGuild().getTextChannelById(target);
+                    TextChannel channel = guild.getTextChannelById(target);
                     if (channel != null)
                     {
                         MessageUtilities.sendMsg(content, channel, null);
@@ -530,7 +580,7 @@ public class ScheduleEntry
             // treat the identifier as a channel name
             if (!success && !target.isEmpty())
             {
-                List<TextChannel> channels = message.getGuild().getTextChannelsByName(target, true);
+                List<TextChannel> channels = guild.getTextChannelsByName(target, true);
                 for (TextChannel chan : channels)
                 {
                     MessageUtilities.sendMsg(content, chan, null);
@@ -540,14 +590,33 @@ public class ScheduleEntry
     }
 
 
+    /**
+     * Requests the displayed Message be refreshed, refreshes requested for the event within
+     * a short window are collapsed into a single edit showing the event's latest state
+     */
+    void reloadDisplay()
+    {
+        Main.getEntryManager().getRefreshCoordinator().request(this.entryId);
+    }
+
+
     /**
      * Edits the displayed Message to indicate the time remaining until
      * the entry is scheduled to begin/end
      */
-    void reloadDisplay()
+    void renderDisplay()
     {
-        this.getMessageObject((message)->
-                MessageUtilities.editMsg(MessageGenerator.generate(this), message, null));
+        TextChannel channel = this.getChannel();
+        if (channel == null) return;
+
+        // skip the edit if the message already shows the same display
+        Message display = MessageGenerator.generate(this);
+        if (Main.getEntryManager().isDisplayCurrent(this.msgId, display)) return;
+
+        // edit by ID, the message does not need to be retrieved
+        String messageId = this.msgId;
+        MessageUtilities.editMsgById(display, channel, messageId,
+                message -> Main.getEntryManager().displayUpdated(messageId, display));
     }
 
 
@@ -624,22 +693,12 @@ public class ScheduleEntry
         if(emoteIsRSVP)
         {
             String logging = Main.getScheduleManager().getRSVPLogging(chanId);
+            String userId = event.getUser().getId();
             if(emoteKey.equals(clearEmoji))
             {
                 // remove the user from groups
-                boolean atLeastOne = false;
-                for(String group : options.values())
-                {
-                    Set<String> members = this.getRsvpMembersOfType(group);
-                    if (members.contains(event.getUser().getId()))
-                    {
-                        members.remove(event.getUser().getId());
-                        this.setRsvpMembers(group, members);
-                        atLeastOne = true;
-                    }
-                }
-
-                if(atLeastOne)  // if the user was removed from at least one group
+                ScheduleEntry updated = Main.getEntryManager().removeRSVP(this.entryId, userId, options.values());
+                if(updated != null)  // if the user was removed from at least one group
                 {
                     // send rsvp rescinded confirmation to the user
                     if (Main.getScheduleManager().isRSVPConfirmationsEnabled(chanId))
@@ -651,14 +710,14 @@ public class ScheduleEntry
                     // log the rsvp action
                     if (!logging.isEmpty() && logging.matches("\\d+"))
                     {
-                        String content = "<@" + event.getUser().getId() + "> has rescinded their RSVP(s) for **" +
+                        String content = "<@" + userId + "> has rescinded their RSVP(s) for **" +
                                 this.getTitle() + "** - :id: **" + ParsingUtilities.intToEncodedID(this.getId()) + "**";
                         TextChannel loggingChannel = event.getJDA().getTextChannelById(logging);
                         if (loggingChannel != null)
                             MessageUtilities.sendMsg(content, loggingChannel, null);
                     }
 
-                    Main.getEntryManager().updateEntry(this, false);
+                    updated.reloadDisplay();
                 }
             }
             else
@@ -666,57 +725,46 @@ public class ScheduleEntry
                 // get the name of the rsvp group
                 String name = options.get(emoteKey);
 
-                // if the rsvp group is full, do nothing
-                if (!this.isFull(name))
+                // remove the user from any other rsvp lists for that event if exclusivity is enabled
+                boolean exclusive = Main.getScheduleManager().isRSVPExclusive(event.getChannel().getId());
+                boolean hasChangedRSVP = false;
+                if (exclusive)
                 {
-                    // add the user to the rsvp type
-                    Set<String> members = this.getRsvpMembersOfType(name);
-                    if (!members.contains(event.getUser().getId()))
+                    for(String group : options.values())
                     {
-                        members.add(event.getUser().getId());
-                        this.setRsvpMembers(name, members);
-
-                        // remove the user from any other rsvp lists for that event if exclusivity is enabled
-                        boolean hasChangedRSVP = false;
-                        if (Main.getScheduleManager().isRSVPExclusive(event.getChannel().getId()))
+                        if (!group.equals(name) && this.getRsvpMembersOfType(group).contains(userId))
                         {
-                            for(String group : options.values())
-                            {
-                                if (!group.equals(name))
-                                {
-                                    members = this.getRsvpMembersOfType(group);
-                                    if (members.contains(event.getUser().getId()))
-                                    {
-                                        members.remove(event.getUser().getId());
-                                        hasChangedRSVP = true;
-                                        this.setRsvpMembers(group, members);
-                                    }
-                                }
-                            }
-                        }
-
-                        // send rsvp confirmation to the user
-                        if (Main.getScheduleManager().isRSVPConfirmationsEnabled(chanId))
-                        {
-                            String content = "You " + (hasChangedRSVP ? "have changed your RSVP to":"have RSVPed") +
-                                    " ``" + name + "`` for **" + this.getTitle() + "**";
-                            MessageUtilities.sendPrivateMsg(content, event.getUser(), null);
+                            hasChangedRSVP = true;
                         }
+                    }
+                }
 
-                        // log the rsvp action
-                        if (!logging.isEmpty() && logging.matches("\\d+"))
-                        {
-                            String content = "<@" + event.getUser().getId() + "> " +
-                                    (hasChangedRSVP ? "has changed their RSVP to":"has RSVPed") +" ``" + name + "`` for **" +
-                                    this.getTitle() + "** - :id: **" + ParsingUtilities.intToEncodedID(this.getId()) + "**";
-                            TextChannel loggingChannel = event.getJDA().getTextChannelById(logging);
-                            if (loggingChannel != null)
-                                MessageUtilities.sendMsg(content, loggingChannel, null);
-                        }
+                // add the user to the rsvp type, does nothing if the group is full or the user is already a member
+                ScheduleEntry updated = Main.getEntryManager().addRSVP(this.entryId, name, userId,
+                        this.getRsvpLimit(name), exclusive ? options.values() : Collections.emptyList());
+                if (updated != null)
+                {
+                    // send rsvp confirmation to the user
+                    if (Main.getScheduleManager().isRSVPConfirmationsEnabled(chanId))
+                    {
+                        String content = "You " + (hasChangedRSVP ? "have changed your RSVP to":"have RSVPed") +
+                                " ``" + name + "`` for **" + this.getTitle() + "**";
+                        MessageUtilities.sendPrivateMsg(content, event.getUser(), null);
+                    }
 
-                        // update the event with the adjusted RSVP list
-                        Main.getEntryManager().updateEntry(this, false);
+                    // log the rsvp action
+                    if (!logging.isEmpty() && logging.matches("\\d+"))
+                    {
+                        String content = "<@" + userId + "> " +
+                                (hasChangedRSVP ? "has changed their RSVP to":"has RSVPed") +" ``" + name + "`` for **" +
+                                this.getTitle() + "** - :id: **" + ParsingUtilities.intToEncodedID(this.getId()) + "**";
+                        TextChannel loggingChannel = event.getJDA().getTextChannelById(logging);
+                        if (loggingChannel != null)
+                            MessageUtilities.sendMsg(content, loggingChannel, null);
                     }
+
+                    // update the display with the adjusted RSVP list
+                    updated.reloadDisplay();
                 }
             }
         }
@@ -757,6 +805,48 @@ public class ScheduleEntry
         return this.hasStarted;
     }
 
+    /**
+     * determines the earliest pending action of the event, stored on the event document as
+     * 'next_fire' and 'next_action' and used by the EntryProcessor to find due events.
+     * reminders for a start (or end) which has already passed are not pending, and announcements and
+     * reminders are preferred over the start/end when due at the same time
+     * @return the time and type of the next action, null if the event has no pending action
+     */
+    Map.Entry<Date, EntryProcessor.ActionType> getNextAction()
+    {
+        Date next = null;
+        EntryProcessor.ActionType action = null;
+
+        List<Map.Entry<Date, EntryProcessor.ActionType>> pending = new ArrayList<>();
+        this.announcements.forEach(date -> pending.add(new AbstractMap.SimpleEntry<>(date, EntryProcessor.ActionType.SPECIAL)));
+        if (!this.hasStarted)
+        {
+            if (this.reminders != null && this.start.isAfter(ZonedDateTime.now()))
+            {
+                this.reminders.forEach(date -> pending.add(new AbstractMap.SimpleEntry<>(date, EntryProcessor.ActionType.REMIND)));
+            }
+            pending.add(new AbstractMap.SimpleEntry<>(Date.from(this.start.toInstant()), EntryProcessor.ActionType.START));
+        }
+        else
+        {
+            if (this.endReminders != null && this.end.isAfter(ZonedDateTime.now()))
+            {
+                this.endReminders.forEach(date -> pending.add(new AbstractMap.SimpleEntry<>(date, EntryProcessor.ActionType.REMIND)));
+            }
+            pending.add(new AbstractMap.SimpleEntry<>(Date.from(this.end.toInstant()), EntryProcessor.ActionType.END));
+        }
+
+        for (Map.Entry<Date, EntryProcessor.ActionType> entry : pending)
+        {
+            if (entry.getKey() != null && (next == null || entry.getKey().before(next)))
+            {
+                next = entry.getKey();
+                action = entry.getValue();
+            }
+        }
+        return next == null ? null : new AbstractMap.SimpleEntry<>(next, action);
+    }
+
     /**
      * true if the event can accept no more members for an rsvp category
      */
@@ -976,6 +1066,16 @@ public class ScheduleEntry
         return this.announcements;
     }
 
+    public int getVersion()
+    {
+        return this.version;
+    }
+
+    Document getSnapshot()
+    {
+        return this.snapshot;
+    }
+
     public String getMessageId()
     {
         return this.msgId;
@@ -986,6 +1086,17 @@ public class ScheduleEntry
         return this.nonEmbeded;
     }
 
+    /**
+     * retrieves the schedule channel of the event from the shard's cache (no request is made)
+     * @return (TextChannel) if the shard is connected and the channel exists, otherwise null
+     */
+    public TextChannel getChannel()
+    {
+        JDA jda = Main.getShardManager().isSharding() ?
+                Main.getShardManager().getShard(guildId) : Main.getShardManager().getJDA();
+        return jda == null ? null : jda.getTextChannelById(this.chanId);
+    }
+
     /**
      * Attempts to retrieve the discord Message, if the message does not exist
      * (or the bot can for any other reason cannot retrieve it) the method returns null
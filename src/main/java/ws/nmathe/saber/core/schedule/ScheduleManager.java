@@ -1,19 +1,28 @@
 package ws.nmathe.saber.core.schedule;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.Guild;
-import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.exceptions.PermissionException;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
 import ws.nmathe.saber.utils.Logging;
 
 import java.time.*;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -22,8 +31,11 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Projections.fields;
 import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
 import static com.mongodb.client.model.Updates.set;
 
 /**
@@ -31,8 +43,22 @@ import static com.mongodb.client.model.Updates.set;
  */
 public class ScheduleManager
 {
-    private Set<String> locks = new HashSet<>(); // locks channels from running multiple sorts simultaneously
-    private Integer MAX_SIZE_TO_SYNC = 15;  // do not sort schedules more than this number of events
+    // runs the sort, sync, and edit operations of a schedule one at a time
+    private ChannelSerializer serializer = new ChannelSerializer();
+
+    // write-through cache of schedule settings documents, keyed by channel ID
+    // documents held in the cache are never mutated, setters replace the cached document with an updated copy
+    private Cache<String, Document> settingsCache = CacheBuilder.newBuilder()
+            .maximumSize(20000)
+            .expireAfterAccess(6, TimeUnit.HOURS)
+            .build();
+
+    // channels found not to be schedules, kept apart from the settings cache so that traffic in ordinary
+    // channels cannot evict schedule settings; entries expire shortly after being written
+    private Cache<String, Boolean> notSchedules = CacheBuilder.newBuilder()
+            .maximumSize(5000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
 
     /**
      * starts a scheduled thread responsible for synchronizing channels with their linked google calendar counterparts
@@ -146,6 +172,7 @@ public class ScheduleManager
         Document schedule =
                 new Document("_id", channelId)
                         .append("guildId", guildId)
+                        .append("shardId", ShardManager.getShardId(guildId))
                         .append("announcement_channel", Main.getBotSettingsManager().getAnnounceChan())
                         .append("announcement_format", Main.getBotSettingsManager().getAnnounceFormat())
                         .append("clock_format", Main.getBotSettingsManager().getClockFormat())
@@ -161,6 +188,8 @@ public class ScheduleManager
                         .append("rsvp_options", default_rsvp);
 
         Main.getDBDriver().getScheduleCollection().insertOne(schedule);
+        this.settingsCache.put(channelId, schedule);
+        this.notSchedules.invalidate(channelId);
     }
 
     /**
@@ -170,10 +199,7 @@ public class ScheduleManager
     public void deleteSchedule(String cId)
     {
         // identify which shard is responsible for the schedule
-        Document doc = Main.getDBDriver().getScheduleCollection()
-                .find(eq("_id", cId))
-                .projection(fields(include("guildId")))
-                .first();
+        Document doc = this.getSettings(cId);
         JDA jda = Main.getShardManager().getJDA(doc.getString("guildId"));
 
         try
@@ -192,6 +218,84 @@ public class ScheduleManager
 
         Main.getDBDriver().getEventCollection().deleteMany(eq("channelId", cId));
         Main.getDBDriver().getScheduleCollection().deleteOne(eq("_id", cId));
+        this.invalidateCache(cId);
+    }
+
+    /**
+     * removes a schedule's settings from the settings cache,
+     * should be used whenever a schedule document is removed from the database
+     * @param cId (String) ID of channel / schedule (synonymous)
+     */
+    public void invalidateCache(String cId)
+    {
+        this.settingsCache.invalidate(cId);
+        this.notSchedules.invalidate(cId);
+    }
+
+    /**
+     * retrieves the settings document for a schedule, loading it from the database
+     * only if the schedule is not already held in the settings cache
+     * @param cId (String) ID of channel / schedule (synonymous)
+     * @return (Document) schedule settings, or null if the channel is not a schedule
+     */
+    private Document getSettings(String cId)
+    {
+        Document settings = this.settingsCache.getIfPresent(cId);
+        if(settings == null)
+        {
+            if(this.notSchedules.getIfPresent(cId) != null) return null;
+
+            // loaded through the cache so that a load racing an invalidation is discarded instead of cached
+            try
+            {
+                settings = this.settingsCache.get(cId, () ->
+                        Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first());
+            }
+            catch(CacheLoader.InvalidCacheLoadException e)
+            {   // no schedule document
+                this.notSchedules.put(cId, true);
+            }
+            catch(ExecutionException | UncheckedExecutionException e)
+            {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * writes a schedule setting to the database and updates the cached settings document to match
+     * @param cId (String) ID of channel / schedule (synonymous)
+     * @param key (String) document key of the setting
+     * @param value new value of the setting
+     */
+    @SuppressWarnings("unchecked")
+    private void updateSetting(String cId, String key, Object value)
+    {
+        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set(key, value));
+
+        // copy collections so that later changes made by the caller do not leak into the cache
+        if(value instanceof List)
+        {
+            value = new ArrayList<>((List) value);
+        }
+        else if(value instanceof Map)
+        {
+            value = new LinkedHashMap<>((Map) value);
+        }
+
+        Object cached = value;
+        Document updated = this.settingsCache.asMap().computeIfPresent(cId, (k, settings) ->
+        {
+            Document copy = new Document(settings);
+            copy.put(key, cached);
+            return copy;
+        });
+        if(updated == null)
+        {   // not cached, discard any load which may have read the settings before the write
+            this.settingsCache.invalidate(cId);
+        }
     }
 
     /**
@@ -201,7 +305,7 @@ public class ScheduleManager
      */
     public boolean isSchedule(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         return settings != null;
     }
 
@@ -216,43 +320,35 @@ public class ScheduleManager
         return Main.getBotSettingsManager().getMaxSchedules() < count;
     }
 
-    private long getScheduleSize(String cId)
-    {
-        return Main.getDBDriver().getScheduleCollection().count(eq("channelId",cId));
-    }
-
     /**
-     * check to see if the channel is locked
-     * @param cId (String) channel ID
-     * @return (boolean) true if the channel is locked for sorting
+     * @return the serializer which runs the sort, sync, and edit operations of each schedule one at a time
      */
-    public boolean isLocked(String cId)
+    public ChannelSerializer getSerializer()
     {
-        return this.locks.contains(cId);
+        return this.serializer;
     }
 
-    /**
-     * locks a schedule (user cannot add/edit new events)
-     * @param cId (String) channel ID
-     */
-    public void lock(String cId)
+    // band-aid
+    public void clearLocks()
     {
-        this.locks.add(cId); // lock the channel
+        this.serializer.clear();
     }
 
     /**
-     * unlocks a schedule (user is free to add/edit events)
-     * @param cId (String) channel ID
+     * the position of an event on a schedule, used for sorting
      */
-    public void unlock(String cId)
+    private static class SortSlot
     {
-        this.locks.remove(cId); // unlock the channel
-    }
+        final Integer entryId;
+        final Date start;
+        long messageId;
 
-    // band-aid
-    public void clearLocks()
-    {
-        this.locks = new HashSet<>();
+        SortSlot(Document document)
+        {
+            this.entryId = document.getInteger("_id");
+            this.start = document.getDate("start");
+            this.messageId = Long.parseLong(document.getString("messageId"));
+        }
     }
 
     /**
@@ -263,75 +359,98 @@ public class ScheduleManager
      */
     public void sortSchedule(String cId, boolean reverseOrder)
     {
-        if(this.getScheduleSize(cId) > MAX_SIZE_TO_SYNC) return;
-        if(this.isLocked(cId)) return;
+        this.serializer.run(cId, () -> this.sortAll(cId, reverseOrder));
+    }
 
-        this.lock(cId); // lock the channel
+    /**
+     * Moves a single event (which was just created or had it's start changed) to it's place on an
+     * otherwise sorted schedule, only the events between the event's old and new position are moved.
+     * If the rest of the schedule is found not to be sorted, the full schedule is sorted instead
+     * @param cId schedule ID
+     * @param reverseOrder (boolean) whether or not to reverse the sort order
+     * @param entryId ID of the event to move
+     */
+    public void sortEntry(String cId, boolean reverseOrder, Integer entryId)
+    {
+        this.serializer.run(cId, () ->
+        {
+            if (!this.moveEntry(cId, reverseOrder, entryId))
+            {
+                this.sortAll(cId, reverseOrder);
+            }
+        });
+    }
 
-        // encapsulate in try block,
-        // always unlock the schedule at finish regardless of success or failure
+    /**
+     * helper to sortSchedule() and sortEntry(), sorts all events of the schedule
+     */
+    private void sortAll(String cId, boolean reverseOrder)
+    {
         try
         {
             // identify which shard is responsible for the schedule
-            Document doc = Main.getDBDriver().getScheduleCollection()
-                    .find(eq("_id", cId))
-                    .projection(fields(include("guildId")))
-                    .first();
+            Document doc = this.getSettings(cId);
             JDA jda = Main.getShardManager().getJDA(doc.getString("guildId"));
 
             // find the message channel and send the 'is typing' while processing
             MessageChannel chan = jda.getTextChannelById(cId);
             chan.sendTyping().queue();
 
-            int sortOrder = 1;
-            if(reverseOrder)
-                sortOrder = -1;
+            // the schedule's events in display order,
+            // events with the same start keep their current relative order to avoid needless moves
+            List<SortSlot> entries = this.getSortSlots(cId);
+            entries.sort(displayOrder(reverseOrder).thenComparingLong(slot -> slot.messageId));
 
-            LinkedList<ScheduleEntry> unsortedEntries = new LinkedList<>();
-            Main.getDBDriver().getEventCollection().find(eq("channelId", cId))
-                    .sort(new Document("start", sortOrder))
-                    .forEach((Consumer<? super Document>) document -> unsortedEntries.add(new ScheduleEntry(document)));
+            this.applyOrder(entries);
+        }
+        catch(PermissionException e)
+        {
+            String m = e.getMessage() + ": Channel ID " + cId;
+            Logging.warn(this.getClass(), m);
+        }
+        catch(Exception e)
+        {
+            Logging.exception(this.getClass(), e);
+        }
+    }
 
-            // selection sort the entries by timestamp
-            while (!unsortedEntries.isEmpty())
+    /**
+     * helper to sortEntry(), moves the event to it's place on the schedule
+     * @return false if the rest of the schedule is not sorted (the event was not moved)
+     */
+    private boolean moveEntry(String cId, boolean reverseOrder, Integer entryId)
+    {
+        try
+        {
+            // the other events of the schedule in their current display order
+            List<SortSlot> entries = this.getSortSlots(cId);
+            SortSlot target = null;
+            for (SortSlot slot : entries)
             {
-                chan.sendTyping().queue();   // continue to send 'is typing'
+                if (slot.entryId.equals(entryId)) target = slot;
+            }
+            if (target == null) return true;
+            entries.remove(target);
+            entries.sort(Comparator.comparingLong(slot -> slot.messageId));
 
-                ScheduleEntry top = unsortedEntries.pop();
-                ScheduleEntry min = top;
-                for (ScheduleEntry cur : unsortedEntries)
-                {
-                    Message minMsg = min.getMessageObject();
-                    Message topMsg = cur.getMessageObject();
-                    if (minMsg!=null && topMsg!=null)
-                    {
-                        OffsetDateTime a = minMsg.getCreationTime();
-                        OffsetDateTime b = topMsg.getCreationTime();
-                        if (a.isAfter(b))
-                        {
-                            min = cur;
-                        }
-                    }
-
-                }
-                // swap messages and update db
-                if (!(min==top))
-                {
-                    Message tmp = top.getMessageObject();
-                    top.setMessageObject(min.getMessageObject());
-                    Main.getDBDriver().getEventCollection().updateOne(
-                            eq("_id", top.getId()),
-                            new Document("$set", new Document("messageId", min.getMessageObject().getId())));
-
-                    min.setMessageObject(tmp);
-                    Main.getDBDriver().getEventCollection().updateOne(
-                            eq("_id", min.getId()),
-                            new Document("$set", new Document("messageId", tmp.getId())));
-                }
-
-                // reload display
-                top.reloadDisplay();
+            // verify the other events are sorted
+            Comparator<SortSlot> order = displayOrder(reverseOrder);
+            for (int i=1; i<entries.size(); i++)
+            {
+                if (order.compare(entries.get(i-1), entries.get(i)) > 0) return false;
+            }
+
+            // binary search for the event's position, after any events with the same start
+            int low = 0, high = entries.size();
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (order.compare(entries.get(mid), target) <= 0) low = mid + 1;
+                else high = mid;
             }
+            entries.add(low, target);
+
+            this.applyOrder(entries);
         }
         catch(PermissionException e)
         {
@@ -342,10 +461,70 @@ public class ScheduleManager
         {
             Logging.exception(this.getClass(), e);
         }
-        finally
+        return true;
+    }
+
+    /**
+     * helper to sortSchedule() and sortEntry(), loads the sort positions of the schedule's events
+     */
+    private List<SortSlot> getSortSlots(String cId)
+    {
+        List<SortSlot> entries = new ArrayList<>();
+        Main.getDBDriver().getEventCollection().find(eq("channelId", cId))
+                .projection(fields(include("_id", "start", "messageId")))
+                .forEach((Consumer<? super Document>) document ->
+                {
+                    if (document.getString("messageId") != null) entries.add(new SortSlot(document));
+                });
+        return entries;
+    }
+
+    /**
+     * helper to sortSchedule() and sortEntry(), orders events by start
+     */
+    private static Comparator<SortSlot> displayOrder(boolean reverseOrder)
+    {
+        Comparator<SortSlot> byStart = Comparator.comparing(slot -> slot.start);
+        return reverseOrder ? byStart.reversed() : byStart;
+    }
+
+    /**
+     * helper to sortSchedule() and sortEntry(), assigns the event messages to the events in display order.
+     * The event messages are ordered by their creation time, message IDs are snowflakes so the numeric order
+     * of the IDs is the order the messages were sent. The n-th event in display order takes the n-th oldest
+     * message, only the events which change messages are updated and re-rendered
+     * @param entries the schedule's events in display order
+     */
+    private void applyOrder(List<SortSlot> entries)
+    {
+        List<Long> slots = entries.stream()
+                .map(slot -> slot.messageId)
+                .sorted()
+                .collect(Collectors.toList());
+
+        List<Integer> moved = new ArrayList<>();
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (int i=0; i<entries.size(); i++)
         {
-            this.unlock(cId); // always unlock
+            SortSlot slot = entries.get(i);
+            if (slot.messageId != slots.get(i))
+            {
+                slot.messageId = slots.get(i);
+                moved.add(slot.entryId);
+                updates.add(new UpdateOneModel<>(eq("_id", slot.entryId),
+                        combine(set("messageId", Long.toString(slot.messageId)), inc("version", 1))));
+            }
         }
+        if (moved.isEmpty()) return;
+
+        Main.getDBDriver().getEventCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        Main.getDBDriver().getEventCollection().find(in("_id", moved))
+                .forEach((Consumer<? super Document>) document ->
+                {   // update the index and re-render each message which now displays a different event
+                    Main.getEntryManager().getMessageIndex()
+                            .put(document.getInteger("_id"), document.getString("messageId"));
+                    Main.getEntryManager().getRefreshCoordinator().requestFrom(document);
+                });
     }
 
 
@@ -357,7 +536,7 @@ public class ScheduleManager
 
     public boolean isRSVPEnabled(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
@@ -367,7 +546,7 @@ public class ScheduleManager
 
     public boolean isRSVPConfirmationsEnabled(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
@@ -377,7 +556,7 @@ public class ScheduleManager
 
     public boolean isEndFormatOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
@@ -389,7 +568,7 @@ public class ScheduleManager
 
     public boolean isEndChannelOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
@@ -401,7 +580,7 @@ public class ScheduleManager
 
     public boolean isRemindFormatOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
@@ -413,7 +592,7 @@ public class ScheduleManager
 
     public boolean isRemindChanOverridden(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return false;
@@ -425,10 +604,16 @@ public class ScheduleManager
 
     public boolean isRSVPExclusive(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
+        Document settings = this.getSettings(cId);
         return settings == null || settings.getBoolean("rsvp_exclusivity", true);
     }
 
+    public boolean isTimeZoneSync(String cId)
+    {
+        Document settings = this.getSettings(cId);
+        return settings != null && settings.getBoolean("timezone_sync", false);
+    }
+
     /*
      * Getters
      * Should never return null
@@ -446,7 +631,7 @@ public class ScheduleManager
 
     public String getStartAnnounceChan(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceChan();
@@ -461,7 +646,7 @@ public class ScheduleManager
 
     public String getStartAnnounceFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceFormat();
@@ -476,7 +661,7 @@ public class ScheduleManager
 
     public String getEndAnnounceChan(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceChan();
@@ -491,7 +676,7 @@ public class ScheduleManager
 
     public String getEndAnnounceFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceFormat();
@@ -506,7 +691,7 @@ public class ScheduleManager
 
     public String getClockFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getClockFormat();
@@ -521,7 +706,7 @@ public class ScheduleManager
 
     public ZoneId getTimeZone(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return ZoneId.of(Main.getBotSettingsManager().getTimeZone());
@@ -536,7 +721,7 @@ public class ScheduleManager
 
     public List<ZoneId> getAltZones(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if(settings == null)
         {
             return new ArrayList<>();
@@ -551,7 +736,7 @@ public class ScheduleManager
 
     public String getAddress(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return "off";
@@ -567,7 +752,7 @@ public class ScheduleManager
 
     public Date getSyncTime(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return Date.from(ZonedDateTime.of(LocalDate.now().plusDays(1),
@@ -586,7 +771,7 @@ public class ScheduleManager
     @SuppressWarnings("unchecked")
     public List<Integer> getReminders(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return new ArrayList<>();
@@ -597,12 +782,12 @@ public class ScheduleManager
         {
             return new ArrayList<>();
         }
-        return reminders;
+        return new ArrayList<>(reminders);
     }
 
     public String getReminderChan(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceChan();
@@ -619,7 +804,7 @@ public class ScheduleManager
 
     public String getReminderFormat(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if( settings == null )
         {
             return Main.getBotSettingsManager().getAnnounceFormat();
@@ -635,7 +820,7 @@ public class ScheduleManager
 
     public String getStyle(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if(settings == null)
         {
             return "FULL";
@@ -651,7 +836,7 @@ public class ScheduleManager
 
     public int getSyncLength(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if(settings == null)
         {
             return 7;
@@ -667,7 +852,7 @@ public class ScheduleManager
 
     public String getSyncUser(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if(settings == null)
         {
             return null;
@@ -683,7 +868,7 @@ public class ScheduleManager
 
     public int getAutoSort(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if(settings == null)
         {
             return 0;
@@ -699,7 +884,7 @@ public class ScheduleManager
 
     public Map<String, String> getRSVPOptions(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if(settings == null)
         {
             return new HashMap<>();
@@ -713,12 +898,12 @@ public class ScheduleManager
             map.put(Main.getBotSettingsManager().getNoEmoji(), "No");
             map.put(Main.getBotSettingsManager().getClearEmoji(), "Undecided");
         }
-        return map;
+        return new LinkedHashMap<>(map);
     }
 
     public String getRSVPClear(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if(settings == null)
         {
             return "";
@@ -733,7 +918,7 @@ public class ScheduleManager
 
     public String getRSVPLogging(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if(settings == null)
         {
             return "";
@@ -748,7 +933,7 @@ public class ScheduleManager
 
     public List<Integer> getEndReminders(String cId)
     {
-        Document settings = Main.getDBDriver().getScheduleCollection().find(eq("_id",cId)).first();
+        Document settings = this.getSettings(cId);
         if(settings == null)
         {
             return new ArrayList<>();
@@ -758,7 +943,7 @@ public class ScheduleManager
         {
             return new ArrayList<>();
         }
-        return reminders;
+        return new ArrayList<>(reminders);
     }
 
     /*
@@ -770,7 +955,7 @@ public class ScheduleManager
      */
     public void setAnnounceChan(String cId, String chan )
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_channel", chan));
+        this.updateSetting(cId, "announcement_channel", chan);
     }
 
     /**
@@ -778,7 +963,7 @@ public class ScheduleManager
      */
     public void setAnnounceFormat(String cId, String format )
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_format", format));
+        this.updateSetting(cId, "announcement_format", format);
     }
 
     /**
@@ -786,7 +971,7 @@ public class ScheduleManager
      */
     public void setEndAnnounceChan(String cId, String chan )
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_channel_end", chan));
+        this.updateSetting(cId, "announcement_channel_end", chan);
     }
 
     /**
@@ -794,7 +979,7 @@ public class ScheduleManager
      */
     public void setEndAnnounceFormat(String cId, String format )
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("announcement_format_end", format));
+        this.updateSetting(cId, "announcement_format_end", format);
     }
 
     /**
@@ -802,7 +987,7 @@ public class ScheduleManager
      */
     public void setClockFormat(String cId, String clock )
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("clock_format", clock));
+        this.updateSetting(cId, "clock_format", clock);
     }
 
     /**
@@ -810,7 +995,7 @@ public class ScheduleManager
      */
     public void setTimeZone(String cId, ZoneId zone)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("timezone", zone.toString()));
+        this.updateSetting(cId, "timezone", zone.toString());
     }
 
     /**
@@ -819,15 +1004,7 @@ public class ScheduleManager
     public void setAltZones(String cId, List<ZoneId> zoneIds)
     {
         List<String> zones = zoneIds.stream().map(zoneId -> zoneId.toString()).collect(Collectors.toList());
-        Document doc = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
-        if(!doc.containsKey("alt_zones"))
-        {
-            doc.append("alt_zones", zones);
-            Main.getDBDriver().getScheduleCollection().replaceOne(eq("_id", cId), doc);
-        } else
-        {
-            Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("alt_zones", zones));
-        }
+        this.updateSetting(cId, "alt_zones", zones);
     }
 
     /**
@@ -835,7 +1012,7 @@ public class ScheduleManager
      */
     public void setAddress(String cId, String address)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_address", address));
+        this.updateSetting(cId, "sync_address", address);
     }
 
     /**
@@ -843,7 +1020,23 @@ public class ScheduleManager
      */
     public void setSyncTime(String cId, Date syncTime)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_time", syncTime));
+        this.updateSetting(cId, "sync_time", syncTime);
+    }
+
+    /**
+     * Sets whether or not the schedule's timezone should follow the timezone of the synced google calendar
+     */
+    public void setTimeZoneSync(String cId, boolean bool)
+    {
+        this.updateSetting(cId, "timezone_sync", bool);
+    }
+
+    /**
+     * Sets the user whose google credentials should be used to sync the schedule (may be null)
+     */
+    public void setSyncUser(String cId, String userId)
+    {
+        this.updateSetting(cId, "sync_user", userId);
     }
 
     /**
@@ -851,7 +1044,7 @@ public class ScheduleManager
      */
     public void setReminders(String cId, List<Integer> reminders)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("default_reminders", reminders));
+        this.updateSetting(cId, "default_reminders", reminders);
     }
 
     /**
@@ -859,15 +1052,7 @@ public class ScheduleManager
      */
     public void setEndReminders(String cId, List<Integer> reminders)
     {
-        Document doc = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
-        if(!doc.containsKey("end_reminders"))
-        {
-            doc.append("end_reminders", reminders);
-            Main.getDBDriver().getScheduleCollection().replaceOne(eq("_id", cId), doc);
-        } else
-        {
-            Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("end_reminders", reminders));
-        }
+        this.updateSetting(cId, "end_reminders", reminders);
     }
 
     /**
@@ -875,7 +1060,7 @@ public class ScheduleManager
      */
     public void setReminderChan(String cId, String chan )
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("reminder_channel", chan));
+        this.updateSetting(cId, "reminder_channel", chan);
     }
 
     /**
@@ -883,7 +1068,7 @@ public class ScheduleManager
      */
     public void setReminderFormat(String cId, String format )
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("reminder_format", format));
+        this.updateSetting(cId, "reminder_format", format);
     }
 
     /**
@@ -891,7 +1076,7 @@ public class ScheduleManager
      */
     public void setRSVPEnable(String cId, boolean value)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("rsvp_enabled", value));
+        this.updateSetting(cId, "rsvp_enabled", value);
     }
 
     /**
@@ -901,7 +1086,7 @@ public class ScheduleManager
      */
     public void setStyle(String cId, String style)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("display_style", style));
+        this.updateSetting(cId, "display_style", style);
     }
 
     /**
@@ -909,7 +1094,7 @@ public class ScheduleManager
      */
     public void setSyncLength(String cId, int len)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("sync_length", len));
+        this.updateSetting(cId, "sync_length", len);
     }
 
     /**
@@ -918,7 +1103,7 @@ public class ScheduleManager
      */
     public void setAutoSort(String cId, int type)
     {
-        Main.getDBDriver().getScheduleCollection().updateOne(eq("_id",cId), set("auto_sort", type));
+        this.updateSetting(cId, "auto_sort", type);
     }
 
     /**
@@ -926,15 +1111,7 @@ public class ScheduleManager
      */
     public void setRSVPOptions(String cId, Map<String, String> options)
     {
-        Document doc = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
-        if(!doc.containsKey("rsvp_options"))
-        {
-            doc.append("rsvp_options", options);
-            Main.getDBDriver().getScheduleCollection().replaceOne(eq("_id", cId), doc);
-        } else
-        {
-            Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_options", options));
-        }
+        this.updateSetting(cId, "rsvp_options", options);
     }
 
     /**
@@ -942,15 +1119,7 @@ public class ScheduleManager
      */
     public void setRSVPClear(String cId, String emoji)
     {
-        Document doc = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
-        if(!doc.containsKey("rsvp_clear"))
-        {
-            doc.append("rsvp_clear", emoji);
-            Main.getDBDriver().getScheduleCollection().replaceOne(eq("_id", cId), doc);
-        } else
-        {
-            Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_clear", emoji));
-        }
+        this.updateSetting(cId, "rsvp_clear", emoji);
     }
 
     /**
@@ -958,15 +1127,7 @@ public class ScheduleManager
      */
     public void setRSVPExclusivity(String cId, Boolean bool)
     {
-        Document doc = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
-        if(!doc.containsKey("rsvp_exclusivity"))
-        {
-            doc.append("rsvp_exclusivity", bool);
-            Main.getDBDriver().getScheduleCollection().replaceOne(eq("_id", cId), doc);
-        } else
-        {
-            Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_exclusivity", bool));
-        }
+        this.updateSetting(cId, "rsvp_exclusivity", bool);
     }
 
     /**
@@ -974,15 +1135,7 @@ public class ScheduleManager
      */
     public void setRSVPConfirmations(String cId, Boolean bool)
     {
-        Document doc = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
-        if(!doc.containsKey("rsvp_confirmations"))
-        {
-            doc.append("rsvp_confirmations", bool);
-            Main.getDBDriver().getScheduleCollection().replaceOne(eq("_id", cId), doc);
-        } else
-        {
-            Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_confirmations", bool));
-        }
+        this.updateSetting(cId, "rsvp_confirmations", bool);
     }
 
     /**
@@ -990,14 +1143,6 @@ public class ScheduleManager
      */
     public void setRSVPLoggingChannel(String cId, String channelIdentifier)
     {
-        Document doc = Main.getDBDriver().getScheduleCollection().find(eq("_id", cId)).first();
-        if(!doc.containsKey("rsvp_logging"))
-        {
-            doc.append("rsvp_logging", channelIdentifier);
-            Main.getDBDriver().getScheduleCollection().replaceOne(eq("_id", cId), doc);
-        } else
-        {
-            Main.getDBDriver().getScheduleCollection().updateOne(eq("_id", cId), set("rsvp_logging", channelIdentifier));
-        }
+        this.updateSetting(cId, "rsvp_logging", channelIdentifier);
     }
 }
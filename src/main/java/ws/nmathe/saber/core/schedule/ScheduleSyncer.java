@@ -8,6 +8,8 @@ import net.dv8tion.jda.core.entities.TextChannel;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import ws.nmathe.saber.Main;
+import ws.nmathe.saber.core.ShardManager;
+import ws.nmathe.saber.core.database.LeaseManager;
 import ws.nmathe.saber.core.google.GoogleAuth;
 import ws.nmathe.saber.core.settings.GuildSettingsManager;
 import ws.nmathe.saber.utils.Logging;
@@ -22,7 +24,6 @@ import java.util.function.Consumer;
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Projections.fields;
 import static com.mongodb.client.model.Projections.include;
-import static com.mongodb.client.model.Updates.set;
 import static ws.nmathe.saber.Main.getGuildSettingsManager;
 
 /**
@@ -40,25 +41,32 @@ class ScheduleSyncer implements Runnable
     {
         Logging.info(this.getClass(), "Running schedule syncer. . .");
         Bson query = and(
+                        ShardManager.getShardFilter(),
                         ne("sync_address", "off"),
                         lte("sync_time", new Date()));
 
         Main.getDBDriver().getScheduleCollection()
                 .find(query)
-                .projection(fields(include("_id", "sync_time", "sync_address","sync_user", "guildId")))
-                .forEach((Consumer<? super Document>) document ->
+                .projection(fields(include("_id", "guildId")))
+                .forEach((Consumer<? super Document>) found ->
         {
             executor.execute(() ->
             {
-                try
-                {
-                    // identify which shard is responsible for the schedule
-                    String guildId = document.getString("guildId");
-                    JDA jda = Main.getShardManager().getJDA(guildId);
+                // identify which shard is responsible for the schedule
+                String guildId = found.getString("guildId");
+                JDA jda = Main.getShardManager().getJDA(guildId);
+
+                // if the shard is not connected, do not sync schedules
+                if(jda == null) return;
+                if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
 
-                    // if the shard is not connected, do not sync schedules
-                    if(jda == null) return;
-                    if(JDA.Status.valueOf("CONNECTED") != jda.getStatus()) return;
+                // claim the schedule so that no other instance of the bot syncs it at the same time,
+                // the query ensures the schedule is still due to be synced once claimed
+                try (LeaseManager.Lease lease = Main.getLeaseManager()
+                        .claim(Main.getDBDriver().getScheduleCollection(), found.get("_id"), query))
+                {
+                    if(lease == null) return;
+                    Document document = lease.getDocument();
 
                     String scheduleId = document.getString("_id");
 
@@ -67,8 +75,7 @@ class ScheduleSyncer implements Runnable
                             Main.getScheduleManager().getTimeZone(scheduleId)).plusDays(1).toInstant());
 
                     // update schedule document with next sync time
-                    Main.getDBDriver().getScheduleCollection()
-                            .updateOne(eq("_id", scheduleId), set("sync_time", syncTime));
+                    Main.getScheduleManager().setSyncTime(scheduleId, syncTime);
 
                     // get the sync address and google credentials, then create the calendar service
                     String address = document.getString("sync_address");
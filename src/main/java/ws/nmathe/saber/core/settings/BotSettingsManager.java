@@ -148,6 +148,9 @@ public class BotSettingsManager
         int log_level;
         List<Integer> shards;
         int shard_total;
+        Long refresh_window;
+        Integer metrics_port;
+        String metrics_address;
 
         BotSettings()
         {
@@ -160,6 +163,9 @@ public class BotSettingsManager
 
             shards = new ArrayList<>();
             shard_total = 0;
+            refresh_window = 1500L;
+            metrics_port = 9410;
+            metrics_address = "127.0.0.1";
 
             prefix = "!";
             admin_prefix = "s.";
@@ -307,4 +313,19 @@ public class BotSettingsManager
     {
         return settings.shard_total;
     }
+
+    public long getRefreshWindow()
+    {   // settings files written before the option existed use the default
+        return settings.refresh_window == null ? 1500 : settings.refresh_window;
+    }
+
+    public int getMetricsPort()
+    {   // a port of zero (or less) disables the metrics endpoint
+        return settings.metrics_port == null ? 9410 : settings.metrics_port;
+    }
+
+    public String getMetricsAddress()
+    {
+        return settings.metrics_address == null ? "127.0.0.1" : settings.metrics_address;
+    }
 }
@@ -1,13 +1,21 @@
 package ws.nmathe.saber.core.settings;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.InsertManyOptions;
+import net.dv8tion.jda.core.entities.Guild;
 import org.bson.Document;
 import ws.nmathe.saber.Main;
 import ws.nmathe.saber.commands.general.*;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Updates.set;
 
 /**
@@ -15,6 +23,9 @@ import static com.mongodb.client.model.Updates.set;
  */
 public class GuildSettingsManager
 {
+    // guild settings objects are shared from this cache and kept fresh by their setters
+    private Map<String, GuildSettings> settingsCache = new ConcurrentHashMap<>();
+
     /**
      * retrieves the guild settings object for a guild
      * @param guildId ID of guild
@@ -22,29 +33,101 @@ public class GuildSettingsManager
      */
     public GuildSettings getGuildSettings(String guildId)
     {
-        Document guildDoc = Main.getDBDriver().getGuildCollection().find(eq("_id", guildId)).first();
+        GuildSettings settings = this.settingsCache.get(guildId);
+        if (settings != null)
+        {
+            return settings;
+        }
 
+        Document guildDoc = Main.getDBDriver().getGuildCollection().find(eq("_id", guildId)).first();
         if (guildDoc == null) // create a new guild document and add to db
         {
-            // unrestricted commands are commands that may be used outside of the command channel
-            ArrayList<String> unrestrictedCommands = new ArrayList<>(Arrays.asList(
-                    new ListCommand().name(),
-                    new HelpCommand().name(),
-                    new SchedulesCommand().name(),
-                    new EventsCommand().name(),
-                    new DiagnoseCommand().name())); // defaults
-
-            // initialize with defaults
-            guildDoc = new Document()
-                    .append("_id", guildId)
-                    .append("prefix", Main.getBotSettingsManager().getCommandPrefix())
-                    .append("unrestricted_commands", unrestrictedCommands)
-                    .append("late_threshold", 15);
-
-            Main.getDBDriver().getGuildCollection().insertOne(guildDoc);
+            guildDoc = this.newGuildDocument(guildId);
+            try
+            {
+                Main.getDBDriver().getGuildCollection().insertOne(guildDoc);
+            }
+            catch (MongoWriteException e)
+            {
+                // the document was created concurrently (ie. by loadGuildSettings), use that one instead
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) throw e;
+                guildDoc = Main.getDBDriver().getGuildCollection().find(eq("_id", guildId)).first();
+            }
+        }
+
+        settings = new GuildSettings(guildDoc);
+        GuildSettings existing = this.settingsCache.putIfAbsent(guildId, settings);
+        return existing != null ? existing : settings;
+    }
+
+    /**
+     * loads the guild settings of many guilds into the settings cache using a single query
+     * guilds which do not yet have a settings document are initialized with the defaults
+     * @param guilds the guilds to load (usually all guilds of a newly ready shard)
+     */
+    public void loadGuildSettings(Collection<Guild> guilds)
+    {
+        Set<String> guildIds = guilds.stream()
+                .map(Guild::getId)
+                .filter(id -> !this.settingsCache.containsKey(id))
+                .collect(Collectors.toSet());
+        if (guildIds.isEmpty()) return;
+
+        Main.getDBDriver().getGuildCollection().find(in("_id", guildIds))
+                .forEach((Consumer<? super Document>) document ->
+                {
+                    GuildSettings settings = new GuildSettings(document);
+                    this.settingsCache.putIfAbsent(settings.guildId, settings);
+                    guildIds.remove(settings.guildId);
+                });
+
+        // create documents for any guild which has not been seen before
+        if (!guildIds.isEmpty())
+        {
+            List<Document> documents = guildIds.stream()
+                    .map(this::newGuildDocument)
+                    .collect(Collectors.toList());
+            try
+            {   // unordered, so that a document concurrently created by getGuildSettings() does not stop the insert
+                Main.getDBDriver().getGuildCollection().insertMany(documents, new InsertManyOptions().ordered(false));
+            }
+            catch (MongoBulkWriteException ignored)
+            { /* the conflicting documents already exist */ }
+            documents.forEach(document -> this.settingsCache.putIfAbsent(document.getString("_id"),
+                    new GuildSettings(document)));
         }
+    }
+
+    /**
+     * removes a guild's settings from the settings cache, the guild's database entry is untouched
+     * @param guildId ID of guild
+     */
+    public void invalidateCache(String guildId)
+    {
+        this.settingsCache.remove(guildId);
+    }
 
-        return new GuildSettings(guildDoc);
+    /**
+     * creates a guild settings document initialized with the default settings
+     * @param guildId ID of guild
+     * @return new settings document (not yet inserted)
+     */
+    private Document newGuildDocument(String guildId)
+    {
+        // unrestricted commands are commands that may be used outside of the command channel
+        ArrayList<String> unrestrictedCommands = new ArrayList<>(Arrays.asList(
+                new ListCommand().name(),
+                new HelpCommand().name(),
+                new SchedulesCommand().name(),
+                new EventsCommand().name(),
+                new DiagnoseCommand().name())); // defaults
+
+        // initialize with defaults
+        return new Document()
+                .append("_id", guildId)
+                .append("prefix", Main.getBotSettingsManager().getCommandPrefix())
+                .append("unrestricted_commands", unrestrictedCommands)
+                .append("late_threshold", 15);
     }
 
     /**
@@ -54,10 +137,10 @@ public class GuildSettingsManager
     public static class GuildSettings
     {
         String guildId;
-        String commandPrefix;
-        ArrayList<String> unrestrictedCommands;
-        String commandChannelId;
-        Integer lateThreshold;
+        volatile String commandPrefix;
+        volatile ArrayList<String> unrestrictedCommands;
+        volatile String commandChannelId;
+        volatile Integer lateThreshold;
 
         GuildSettings(Document guildDocument)
         {
@@ -65,7 +148,8 @@ public class GuildSettingsManager
             commandPrefix = guildDocument.getString("prefix");
             commandChannelId = guildDocument.get("command_channel") != null ?
                     guildDocument.getString("command_channel") : null;
-            unrestrictedCommands = (ArrayList<String>) guildDocument.get("unrestricted_commands");
+            Object unrestricted = guildDocument.get("unrestricted_commands");
+            unrestrictedCommands = unrestricted == null ? new ArrayList<>() : new ArrayList<>((List<String>) unrestricted);
             lateThreshold = guildDocument.get("late_threshold") != null ?
                     guildDocument.getInteger("late_threshold") : 15;
         }
@@ -82,15 +166,18 @@ public class GuildSettingsManager
             return this.commandChannelId;
         }
 
+        /**
+         * @return a copy of the unrestricted commands, the cached list is shared and never mutated
+         */
         public ArrayList<String> getUnrestrictedCommands()
         {
-            return unrestrictedCommands;
+            return new ArrayList<>(this.unrestrictedCommands);
         }
 
         public ArrayList<String> getRestrictedCommands()
         {
             ArrayList<String> commands = new ArrayList<>(Main.getCommandHandler().getCommandNames());
-            commands.removeAll(unrestrictedCommands);
+            commands.removeAll(this.unrestrictedCommands);
             return commands;
         }
 
@@ -117,9 +204,12 @@ public class GuildSettingsManager
 
         public void setUnrestrictedCommands(ArrayList<String> unrestrictedCommands)
         {
+            // copy so that later changes made by the caller do not leak into the cache,
+            // the cached list is replaced only once the write has succeeded
+            ArrayList<String> commands = new ArrayList<>(unrestrictedCommands);
             Main.getDBDriver().getGuildCollection().updateOne(eq("_id", guildId),
-                    set("unrestricted_commands", unrestrictedCommands));
-            this.unrestrictedCommands = unrestrictedCommands;
+                    set("unrestricted_commands", commands));
+            this.unrestrictedCommands = commands;
         }
 
         public void setLateThreshold(Integer minutes)
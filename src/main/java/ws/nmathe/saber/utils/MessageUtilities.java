@@ -3,7 +3,9 @@ package ws.nmathe.saber.utils;
 import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.exceptions.ErrorResponseException;
 import net.dv8tion.jda.core.exceptions.PermissionException;
+import net.dv8tion.jda.core.requests.ErrorResponse;
 
 import java.util.function.Consumer;
 
@@ -165,6 +167,60 @@ public class MessageUtilities
         }
     }
 
+    /**
+     * replaces the content of a message identified by it's ID, the message does not need to be retrieved first
+     * , asynchronous (non-blocking)
+     * @param newMsg the new message content
+     * @param chan the channel the message was sent to
+     * @param msgId the snowflake ID of the message to edit
+     * @param action a non null Consumer will do operations on the results returned
+     */
+    public static void editMsgById(Message newMsg, MessageChannel chan, String msgId, Consumer<Message> action)
+    {
+        if (newMsg.getContentRaw().isEmpty() && newMsg.getEmbeds().isEmpty()) return;
+
+        try
+        {
+            chan.editMessageById(msgId, newMsg).queue(action, MessageUtilities::byIdFailure);
+        }
+        catch (PermissionException ignored) {}
+        catch (Exception e)
+        {
+            Logging.exception(MessageUtilities.class, e);
+        }
+    }
+
+    /**
+     * attempts to remove a message identified by it's ID, asynchronous (non-blocking)
+     * @param chan the channel the message was sent to
+     * @param msgId the snowflake ID of the message to delete
+     * @param action a non null Consumer will do operations on the results returned
+     */
+    public static void deleteMsgById(MessageChannel chan, String msgId, Consumer<Void> action)
+    {
+        try
+        {
+            chan.deleteMessageById(msgId).queue(action, MessageUtilities::byIdFailure);
+        }
+        catch (PermissionException ignored) { }
+        catch (Exception e)
+        {
+            Logging.exception(MessageUtilities.class, e);
+        }
+    }
+
+    /**
+     * failure handler for the actions on messages identified by ID,
+     * messages which have since been deleted are expected and not logged
+     */
+    private static void byIdFailure(Throwable e)
+    {
+        if (e instanceof PermissionException) return;
+        if (e instanceof ErrorResponseException &&
+                ((ErrorResponseException) e).getErrorResponse() == ErrorResponse.UNKNOWN_MESSAGE) return;
+        Logging.exception(MessageUtilities.class, e);
+    }
+
     /**
      * attempts to remove a message, asynchronous (non-blocking)
      * @param msg the message to delete